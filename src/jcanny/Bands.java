@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class splits the rows of an image into horizontal bands and runs a row-range task over them on a
+ * ForkJoinPool. Each stage of the pipeline reads a finished plane and writes a new one, so a band simply
+ * reads the rows above and below it (its halo) from the input plane; bands never write outside themselves.
+ * 
+ * @author robert
+ */
+
+final class Bands {
+    private static final int MIN_BAND = 16;     //Fewest rows worth handing to another thread
+    private static final int BANDS_PER_THREAD = 4;
+    
+    /*
+     * A piece of work over output rows [rowStart, rowEnd).
+     */
+    interface Task {
+        void Run(int rowStart, int rowEnd);
+    }
+    
+    private Bands() {
+    }
+    
+    /*
+     * Runs the task over rows [0, rows). With a null pool the task runs once, on the calling thread.
+     */
+    static void Run(ForkJoinPool pool, int rows, Task task) {
+        Run(pool, rows, MIN_BAND, task);
+    }
+    
+    /*
+     * Runs the task over items [0, count), handing out no fewer than minBand items at a time.
+     */
+    static void Run(ForkJoinPool pool, int count, int minBand, Task task) {
+        if (pool == null || count <= minBand) {
+            task.Run(0, count);
+        } else {
+            int band = Math.max(minBand, count / (pool.getParallelism() * BANDS_PER_THREAD));
+            
+            pool.invoke(new Split(task, 0, count, band));
+        }
+    }
+    
+    /*
+     * Halves its range until it is no taller than one band.
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Task task;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int band;
+        
+        Split(Task task, int rowStart, int rowEnd, int band) {
+            this.task = task;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.band = band;
+        }
+        
+        @Override
+        protected void compute() {
+            if (rowEnd - rowStart <= band) {
+                task.Run(rowStart, rowEnd);
+            } else {
+                int mid = (rowStart + rowEnd) >>> 1;
+                
+                invokeAll(new Split(task, rowStart, mid, band), new Split(task, mid, rowEnd, band));
+            }
+        }
+    }
+}
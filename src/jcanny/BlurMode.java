@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This enum selects how the Gaussian blur stage of a CannyDetector is computed.
+ * 
+ * @author robert
+ */
+
+public enum BlurMode {
+    /**
+     * Direct convolution with a 2 * radius + 1 tap kernel. Cost grows with the radius.
+     */
+    FIR,
+    
+    /**
+     * Direct convolution like FIR, but with the kernel pre-normalized to integer weights summing to 2^14
+     * and a shift in place of the divide. For 8-bit input it differs from FIR by at most 1 gray level.
+     */
+    FIXED,
+    
+    /**
+     * Young - van Vliet recursive filter. A forward and a backward third-order pass in each direction give
+     * a constant cost per pixel for any sigma, at the price of an approximation error that shrinks as sigma
+     * grows. On uniform noise, the worst case, the largest difference from FIR is about 20 gray levels at
+     * sigma 0.5 to 1, 8 at sigma 1.5, 5 at sigma 2, 2 at sigma 3 to 4, and 1 from sigma 6 up; on photographs
+     * it stays within 2. Prefer FIR or FIXED below sigma 2, where their kernels are short anyway. Sigma must
+     * be at least 0.5.
+     */
+    IIR
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class is a flat, row-major image backed by a byte[]. Values are unsigned,
+ * 0-255, which is enough for 8-bit grayscale and binary edge images.
+ * 
+ * @author robert
+ */
+
+public class BytePlane extends Plane {
+    byte[] data;    //Unsigned pixel values, row r starts at r * stride
+    
+    /**
+     * Create an empty plane whose stride equals its width.
+     * 
+     * @param width     int, the number of pixels in each row
+     * @param height    int, the number of rows
+     */
+    public BytePlane(int width, int height) {
+        this(width, height, width);
+    }
+    
+    /**
+     * Create an empty plane with the given row stride.
+     * 
+     * @param width     int, the number of pixels in each row
+     * @param height    int, the number of rows
+     * @param stride    int, the distance between the starts of two rows, at least width
+     */
+    public BytePlane(int width, int height, int stride) {
+        super(width, height, stride);
+        data = new byte[height * stride];
+    }
+    
+    /*
+     * Wraps an existing array, for planes that view the top-left corner of another plane.
+     */
+    BytePlane(byte[] data, int width, int height, int stride) {
+        super(width, height, stride);
+        this.data = data;
+    }
+    
+    /**
+     * @return data     byte[], the backing array of this plane
+     */
+    public byte[] getData() {
+        return data;
+    }
+    
+    @Override
+    int Capacity() {
+        return data.length;
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @return v    int, unsigned value of the pixel
+     */
+    public int get(int x, int y) {
+        return data[y * stride + x] & 0xff;
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @param v     int, new value of the pixel, 0-255
+     */
+    public void set(int x, int y, int v) {
+        data[y * stride + x] = (byte) v;
+    }
+    
+    /**
+     * Send this method an int[][] array to get a plane holding a copy of its values.
+     * 
+     * @param raw       int[][], a rectangular array of pixel values 0-255
+     * @return plane    BytePlane, a flat copy of the array
+     */
+    public static BytePlane FromArray(int[][] raw) {
+        int height = raw.length;
+        int width = (height > 0) ? raw[0].length : 0;
+        BytePlane plane = new BytePlane(width, height);
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                plane.data[r * width + c] = (byte) raw[r][c];
+            }
+        }
+        
+        return plane;
+    }
+    
+    /**
+     * Call this method to copy the plane into an int[][] array.
+     * 
+     * @return out  int[][], a jagged copy of the plane's values
+     */
+    public int[][] ToArray() {
+        int[][] out = new int[height][width];
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                out[r][c] = data[r * stride + c] & 0xff;
+            }
+        }
+        
+        return out;
+    }
+}
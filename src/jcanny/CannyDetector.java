@@ -0,0 +1,899 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class contains an instance-based Canny edge detector. Every detector keeps its own thresholds
+ * and intermediate images, so any number of detectors can run on separate threads at the same time.
+ * A single detector is not meant to be shared between threads; give each thread its own.
+ * 
+ * Given a ForkJoinPool, a detector also splits each stage of a single image into horizontal bands and runs
+ * them across the pool. The parallel path produces exactly the same output as the sequential one.
+ * 
+ * @author robert
+ */
+
+public class CannyDetector {
+    static final double GAUSSIAN_INTENSITY = 1.5;
+    static final int GAUSSIAN_RADIUS = Gaussian.Radius(GAUSSIAN_INTENSITY, Gaussian.DEFAULT_TOLERANCE);
+    
+    private final int numDev;       //Number of standard deviations above mean for high threshold
+    private final double tFract;    //Low threshold is this fraction of high threshold
+    private final CannyWorkspace ws;    //Buffers reused from one call to the next
+    private int stDev;              //Standard deviation in magnitude of image's pixels
+    private int mean;               //Mean of magnitude in image's pixels
+    private double tHi;             //Hysteresis high threshold; Definitely edge pixels, do not examine
+    private double tLo;             //Hysteresis low threshold; possible edge pixel, examine further.
+    private double magHi;           //High threshold in the units stored in mag
+    private double magLo;           //Low threshold in the units stored in mag
+    private static final int COLUMN_BAND = 64;  //Fewest columns worth handing to another thread
+    private static final int FLOOD_STACK = 1 << 12; //Initial length of the hysteresis flood fill stack
+    private static final int BANDS_PER_THREAD = 4;  //Histogram bands per pool thread
+    static final double DEFAULT_PERCENTILE = 0.9;
+    private static final int[] SUPPRESS_ROW = {0, 1, 1, 1};     //Rows to the suppression neighbour, by direction code
+    private static final int[] SUPPRESS_COLUMN = {1, -1, 0, 1}; //Columns to the suppression neighbour, by direction code
+    
+    private ForkJoinPool pool;      //Pool that runs the row bands of each stage, null for sequential
+    private BlurMode blurMode = BlurMode.FIR;
+    private HysteresisMode hysteresisMode = HysteresisMode.FLOOD;
+    private ThresholdMode thresholdMode = ThresholdMode.DEVIATION;
+    private MagnitudeMode magnitudeMode = MagnitudeMode.EUCLIDEAN;
+    private int outputType = BufferedImage.TYPE_INT_RGB;   //Type of the edge images returned
+    private double percentile = DEFAULT_PERCENTILE;    //Fraction of pixels below the high threshold
+    private double sampleFraction = 1;  //Fraction of magnitude rows the thresholds are estimated from
+    private int sampleStep = 1;     //Rows per sampling stratum; 1 uses every row
+    private double thresholdError;  //95% bound on the high threshold's sampling error
+    private double sigma = GAUSSIAN_INTENSITY;  //Standard deviation of the Gaussian blur
+    private double tolerance = Gaussian.DEFAULT_TOLERANCE;  //Fraction of the Gaussian cut off by its radius
+    private int radius = GAUSSIAN_RADIUS;   //Gaussian kernel radius, derived from sigma and tolerance
+    private double[] coeffs;        //Recursive blur coefficients, only computed in IIR mode
+    private double[] mask = Gaussian.NormalizedKernel(GAUSSIAN_RADIUS, GAUSSIAN_INTENSITY);    //Gaussian kernel
+    private int[] fixed = Gaussian.FixedKernel(GAUSSIAN_RADIUS, GAUSSIAN_INTENSITY);  //Fixed-point Gaussian kernel
+    private BufferedImage src;      //Image being processed
+    private BufferedImage edges;    //Image receiving the result
+    private EdgeMask edgeMask;      //Mask receiving the result
+    private double[] rowSums;       //Per-row sums, then per-row sums of squares, combined in row order
+    private final Moments moments = new Moments();  //Mean and deviation of the gradient magnitude
+    private int[] histograms;       //Magnitude histogram of each band, merged into the first
+    private int histogramBand;      //Rows per histogram band
+    private IntPlane raw;           //Grayscale input
+    private IntPlane blurred;       //Gaussian blurred input
+    private FloatPlane smooth;      //Unrounded horizontal or recursive blur
+    private IntPlane partial;       //Fixed-point horizontal blur
+    private BytePlane dir;          //Gradient direction codes, 0-3 for 0, 45, 90 and 135 degrees
+    private FloatPlane mag;         //Magnitude mask. Equals Math.sqrt(gx^2 * gy^2)
+    private FloatPlane nms;         //Magnitude after non-maximum suppression
+    private BytePlane bin;          //Binary edge image
+    
+    //Row-band tasks for each stage, built once so that running a stage allocates nothing
+    private final Bands.Task grayTask = (rowStart, rowEnd) -> ImageUtils.GSRows(src, raw, rowStart, rowEnd);
+    private final Bands.Task blurRowTask = (rowStart, rowEnd) -> Gaussian.HorizontalRows(raw, mask, smooth, rowStart, rowEnd);
+    private final Bands.Task blurColumnTask = (rowStart, rowEnd) -> Gaussian.VerticalRows(smooth, mask, blurred, rowStart, rowEnd);
+    private final Bands.Task fixedRowTask = (rowStart, rowEnd) -> Gaussian.FixedHorizontalRows(raw, fixed, partial, rowStart, rowEnd);
+    private final Bands.Task fixedColumnTask = (rowStart, rowEnd) -> Gaussian.FixedVerticalRows(partial, fixed, blurred, rowStart, rowEnd);
+    private final Bands.Task iirRowTask = (rowStart, rowEnd) -> Gaussian.IIRRows(raw, coeffs, smooth, rowStart, rowEnd);
+    private final Bands.Task iirColumnTask = (colStart, colEnd) -> Gaussian.IIRColumns(smooth, coeffs, blurred, colStart, colEnd);
+    private final Bands.Task gradientTask = this::GradientRows;
+    private final Bands.Task histogramTask = this::HistogramBands;
+    private final Bands.Task suppressionTask = (rowStart, rowEnd) -> Suppression(mag, dir, nms, rowStart, rowEnd);
+    private final Bands.Task hysteresisTask = this::HysteresisRows;
+    private final Components components = new Components();    //Parallel flood-fill hysteresis
+    private final PackedHysteresis packed = new PackedHysteresis();   //Bit-parallel flood-fill hysteresis
+    private final Bands.Task outputTask = (rowStart, rowEnd) -> ImageUtils.GSImgRows(bin, edges, rowStart, rowEnd);
+    private final Bands.Task maskTask = (rowStart, rowEnd) -> edgeMask.PackRows(bin, rowStart, rowEnd);
+    
+    /**
+     * Create a detector with the given hysteresis parameters.
+     * 
+     * @param numberDeviations  Set high threshold as a function of number of standard deviations above the mean.
+     *                          mean + std. dev: 68% of pixel magnitudes fall below this value
+     *                          mean + 2 * std. dev: 95% of pixel magnitudes fall below this value
+     *                          mean + 3 * std. dev: 99.7% of pixel magnitudes fall below this value
+     * @param fract             Set low threshold as a fraction of the high threshold
+     */
+    public CannyDetector(int numberDeviations, double fract) {
+        this(numberDeviations, fract, new CannyWorkspace());
+    }
+    
+    /**
+     * Create a detector with the given hysteresis parameters that keeps its buffers in the given workspace.
+     * 
+     * @param numberDeviations  Set high threshold as a function of number of standard deviations above the mean.
+     * @param fract             Set low threshold as a fraction of the high threshold
+     * @param workspace         CannyWorkspace, the buffers to reuse between calls
+     */
+    public CannyDetector(int numberDeviations, double fract, CannyWorkspace workspace) {
+        numDev = numberDeviations;
+        tFract = fract;
+        ws = workspace;
+    }
+    
+    /**
+     * @return numberDeviations int, the standard deviations above the mean of the high threshold
+     */
+    public int getNumberDeviations() {
+        return numDev;
+    }
+    
+    /**
+     * @return fract    double, the fraction of the high threshold that is the low threshold
+     */
+    public double getFraction() {
+        return tFract;
+    }
+    
+    /**
+     * Call this method to run each stage across a pool, or to go back to running on the calling thread.
+     * 
+     * @param pool  ForkJoinPool, the pool to split each image across, such as ForkJoinPool.commonPool(), or null
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Call this method to choose how the Gaussian blur is computed.
+     * 
+     * @param mode  BlurMode, FIR (the default) for direct convolution, FIXED for integer convolution of 8-bit
+     *              input, or IIR for a recursive filter, which needs sigma of at least 0.5
+     */
+    public void setBlurMode(BlurMode mode) {
+        if (mode == BlurMode.IIR) {
+            coeffs = Gaussian.IIRCoefficients(sigma);
+        }
+        
+        blurMode = mode;
+    }
+    
+    /**
+     * @return mode     BlurMode, how the Gaussian blur is computed
+     */
+    public BlurMode getBlurMode() {
+        return blurMode;
+    }
+    
+    /**
+     * Call this method to choose how weak pixels are kept.
+     * 
+     * @param mode  HysteresisMode, FLOOD (the default) to keep weak pixels connected to a strong pixel, PACKED
+     *              for the same result from packed bit masks, or NEIGHBOUR to keep only weak pixels next to
+     *              one, as CannyStream and, by default, CannyTiler do
+     */
+    public void setHysteresisMode(HysteresisMode mode) {
+        hysteresisMode = mode;
+    }
+    
+    /**
+     * @return mode     HysteresisMode, how weak pixels are kept
+     */
+    public HysteresisMode getHysteresisMode() {
+        return hysteresisMode;
+    }
+    
+    /**
+     * Call this method to change the standard deviation of the Gaussian blur. The kernel radius, and with it the
+     * border cropped from each side of the output, is derived from sigma and the truncation tolerance.
+     * 
+     * @param sigma     double, the standard deviation of the Gaussian, greater than 0 and at least 0.5 in IIR mode
+     */
+    public void setSigma(double sigma) {
+        Gaussian.Radius(sigma, tolerance);  //Rejects a bad sigma before anything changes
+        
+        if (blurMode == BlurMode.IIR) {
+            coeffs = Gaussian.IIRCoefficients(sigma);
+        }
+        
+        this.sigma = sigma;
+        Kernels();
+    }
+    
+    /**
+     * @return sigma    double, the standard deviation of the Gaussian blur
+     */
+    public double getSigma() {
+        return sigma;
+    }
+    
+    /**
+     * Call this method to change how much of the Gaussian may be cut off when its kernel is truncated. A smaller
+     * tolerance gives a wider kernel, a more exact blur, and a larger border cropped from the output.
+     * 
+     * @param tolerance double, the largest fraction of the kernel's weight beyond its radius, between 0 and 1
+     */
+    public void setTolerance(double tolerance) {
+        Gaussian.Radius(sigma, tolerance);  //Rejects a bad tolerance before anything changes
+        this.tolerance = tolerance;
+        Kernels();
+    }
+    
+    /**
+     * @return tolerance    double, the largest fraction of the Gaussian's weight cut off by its radius
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+    
+    /**
+     * @return radius   int, the Gaussian kernel radius derived from sigma and the tolerance
+     */
+    public int getRadius() {
+        return radius;
+    }
+    
+    /**
+     * Call this method to choose what is stored as the gradient magnitude. SQUARED skips the square root of each
+     * pixel in the gradient pass and gives the same edges, though DEVIATION thresholds still take one per pixel
+     * for the statistics; L1 is cheaper still but a different norm. Directions never need Math.atan2, whatever
+     * the mode.
+     * 
+     * @param mode  MagnitudeMode, EUCLIDEAN (the default), SQUARED or L1
+     */
+    public void setMagnitudeMode(MagnitudeMode mode) {
+        magnitudeMode = mode;
+    }
+    
+    /**
+     * @return mode     MagnitudeMode, what is stored as the gradient magnitude
+     */
+    public MagnitudeMode getMagnitudeMode() {
+        return magnitudeMode;
+    }
+    
+    /**
+     * Call this method to choose the type of the edge images returned. TYPE_INT_RGB (the default) is the easiest to
+     * draw on; TYPE_BYTE_GRAY takes a quarter of the memory and TYPE_BYTE_BINARY, 1 bit per pixel, a thirty-second.
+     * Either is written straight into the image's raster, and is much quicker to encode as PNG.
+     * 
+     * @param type  int, BufferedImage.TYPE_INT_RGB, TYPE_BYTE_GRAY or TYPE_BYTE_BINARY
+     */
+    public void setOutputType(int type) {
+        if (!ImageUtils.OutputType(type)) {
+            throw new IllegalArgumentException("ERROR: Unsupported output image type!");
+        }
+        
+        outputType = type;
+    }
+    
+    /**
+     * @return type     int, the BufferedImage type of the edge images returned
+     */
+    public int getOutputType() {
+        return outputType;
+    }
+    
+    /**
+     * Call this method to choose how the high hysteresis threshold is picked.
+     * 
+     * @param mode  ThresholdMode, DEVIATION (the default) for the mean plus numberDeviations standard deviations,
+     *              PERCENTILE for the magnitude below which the set percentile of pixels fall, or OTSU
+     */
+    public void setThresholdMode(ThresholdMode mode) {
+        thresholdMode = mode;
+    }
+    
+    /**
+     * @return mode     ThresholdMode, how the high hysteresis threshold is picked
+     */
+    public ThresholdMode getThresholdMode() {
+        return thresholdMode;
+    }
+    
+    /**
+     * Call this method to set the fraction of pixels that fall below the high threshold in PERCENTILE mode.
+     * 
+     * @param fraction  double, between 0 and 1; 0.9 by default
+     */
+    public void setPercentile(double fraction) {
+        if (fraction <= 0 || fraction >= 1) {
+            throw new IllegalArgumentException("ERROR: Percentile must be between 0 and 1!");
+        }
+        
+        percentile = fraction;
+    }
+    
+    /**
+     * @return fraction     double, the fraction of pixels below the high threshold in PERCENTILE mode
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+    
+    /**
+     * Call this method to estimate the thresholds from a sample of the gradient magnitude rather than all of it,
+     * for previews where they only need to be roughly right. The rows are cut into strata of round(1 / fraction)
+     * rows and one row at a fixed pseudo-random position in each stratum is sampled. getThresholdError() then
+     * reports how far off the high threshold may be.
+     * 
+     * @param fraction  double, the fraction of rows to sample, between 0 and 1; 1 (the default) uses every row
+     */
+    public void setSampleFraction(double fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("ERROR: Sample fraction must be between 0 and 1!");
+        }
+        
+        sampleFraction = fraction;
+        sampleStep = Math.max(1, (int) Math.round(1 / fraction));
+    }
+    
+    /**
+     * @return fraction     double, the fraction of rows the thresholds are estimated from
+     */
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+    
+    /**
+     * The half-width of a 95% confidence interval for the high threshold of the last image, estimated from how the
+     * sampled rows differ from one another and before the mean and deviation are rounded to whole numbers. Each row
+     * counts as one draw, since its pixels are correlated. It is 0 when every row was used, and NaN for OTSU
+     * thresholds, which have no simple bound, or when fewer than two rows were sampled.
+     * 
+     * @return error    double, how far the high threshold may be from the one a full pass would give
+     */
+    public double getThresholdError() {
+        return thresholdError;
+    }
+    
+    /**
+     * @return pool     ForkJoinPool, the pool each image is split across, or null if running sequentially
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+    
+    /**
+     * @return tHi  double, the high hysteresis threshold used for the last image
+     */
+    public double getHighThreshold() {
+        return tHi;
+    }
+    
+    /**
+     * @return tLo  double, the low hysteresis threshold used for the last image
+     */
+    public double getLowThreshold() {
+        return tLo;
+    }
+    
+    /**
+     * @return workspace    CannyWorkspace, the buffers this detector reuses between calls
+     */
+    public CannyWorkspace getWorkspace() {
+        return ws;
+    }
+    
+    /**
+     * Call this method with the size of the largest image this detector will be given to size, ahead of the first
+     * call, every buffer the current settings use. Detecting images up to that size then allocates no buffers. The
+     * flood fill stack is given room for every pixel, which it can never outgrow. Call it again after changing the
+     * settings or sigma.
+     * 
+     * @param width     int, the width of the largest expected input image
+     * @param height    int, the height of the largest expected input image
+     */
+    public void Reserve(int width, int height) {
+        if (Fits(width, height)) {
+            Planes(width, height);
+            
+            if (blurMode == BlurMode.IIR) {
+                ws.Smooth(raw.width, raw.height);
+            } else if (blurMode == BlurMode.FIXED) {
+                ws.Partial(blurred.width, raw.height);
+            } else {
+                ws.Smooth(blurred.width, raw.height);
+            }
+            
+            if (thresholdMode != ThresholdMode.DEVIATION) {
+                ws.Histograms(HistogramParts(mag.height) * Histogram.BINS);
+            }
+            
+            if (hysteresisMode == HysteresisMode.FLOOD && pool != null) {
+                ws.Labels(bin.width, bin.height);
+            } else if (hysteresisMode == HysteresisMode.FLOOD) {
+                ws.Stack(bin.width * bin.height);
+            } else if (hysteresisMode == HysteresisMode.PACKED) {
+                ws.Words(PackedHysteresis.Length(bin.width, bin.height));
+            }
+        }
+    }
+    
+    /**
+     * This function accepts a single-channel (grayscale, red, blue, Y, etc) image and returns an image with detected edges.
+     * The output is 2 * getRadius() + 4 pixels narrower and shorter than the input, so an image that is not wider and
+     * taller than that is invalid.
+     * 
+     * @param img       A BufferedImage that is to undergo Canny edge detector.
+     * @return edges    A binary image of the edges in the input image, or null if the image or parameters are invalid.
+     */
+    public BufferedImage CannyEdges(BufferedImage img) {
+        return CannyEdges(img, null);
+    }
+    
+    /**
+     * This function accepts a single-channel (grayscale, red, blue, Y, etc) image and writes the detected edges into
+     * dst if it has the right size and type, so repeated calls with the same dst allocate nothing. Otherwise a new
+     * image is returned, which can be passed as dst on the next call.
+     * 
+     * @param img       A BufferedImage that is to undergo Canny edge detector.
+     * @param dst       A BufferedImage of the output type from an earlier call to reuse, or null.
+     * @return edges    A binary image of the edges in the input image, or null if the image or parameters are invalid.
+     */
+    public BufferedImage CannyEdges(BufferedImage img, BufferedImage dst) {
+        BufferedImage out = null;
+        
+        if (Detect(img)) {
+            if (dst != null && dst.getType() == outputType
+                    && dst.getWidth() == bin.width && dst.getHeight() == bin.height) {
+                edges = dst;
+            } else {
+                edges = new BufferedImage(bin.width, bin.height, outputType);
+            }
+            
+            Bands.Run(pool, bin.height, outputTask);
+            out = edges;
+            edges = null;
+        }
+        
+        return out;
+    }
+    
+    /**
+     * This function accepts a single-channel (grayscale, red, blue, Y, etc) image and returns its edges as a packed
+     * bit mask, for callers that only need to know which pixels are edges. The mask is the size of CannyEdges()'s
+     * output, so the same images are invalid.
+     * 
+     * @param img       A BufferedImage that is to undergo Canny edge detector.
+     * @return edges    An EdgeMask of the edges in the input image, or null if the image or parameters are invalid.
+     */
+    public EdgeMask CannyMask(BufferedImage img) {
+        return CannyMask(img, null);
+    }
+    
+    /**
+     * This function is CannyMask() writing into dst if it has the right size, so repeated calls with the same dst
+     * allocate nothing. Otherwise a new mask is returned, which can be passed as dst on the next call.
+     * 
+     * @param img       A BufferedImage that is to undergo Canny edge detector.
+     * @param dst       An EdgeMask from an earlier call to reuse, or null.
+     * @return edges    An EdgeMask of the edges in the input image, or null if the image or parameters are invalid.
+     */
+    public EdgeMask CannyMask(BufferedImage img, EdgeMask dst) {
+        EdgeMask out = null;
+        
+        if (Detect(img)) {
+            if (dst != null && dst.getWidth() == bin.width && dst.getHeight() == bin.height) {
+                edgeMask = dst;
+            } else {
+                edgeMask = new EdgeMask(bin.width, bin.height);
+            }
+            
+            Bands.Run(pool, bin.height, maskTask);
+            out = edgeMask;
+            edgeMask = null;
+        }
+        
+        return out;
+    }
+    
+    /*
+     * Runs every stage up to hysteresis, leaving the edges in bin. Returns false if the image or parameters are
+     * invalid.
+     */
+    private boolean Detect(BufferedImage img) {
+        boolean valid = false;
+        
+        if (img != null && numDev > 0 && tFract > 0 && Fits(img.getWidth(), img.getHeight())) {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            src = img;
+            Planes(width, height);
+            
+            Bands.Run(pool, raw.height, grayTask);
+            src = null;
+            Blur();
+            Gradient();     //Find the gradient magnitude and direction at each pixel, and its statistics
+            Suppression();  //Using the direction and magnitude images, identify candidate points
+            Hysteresis();   //Keep strong pixels and the weak pixels connected to them
+            valid = true;
+        }
+        
+        return valid;
+    }
+    
+    /*
+     * Takes the planes every setting uses from the workspace, sized for an image of the given size.
+     */
+    private void Planes(int width, int height) {
+        raw = ws.Raw(width, height);
+        blurred = ws.Blurred(width - 2 * radius, height - 2 * radius);
+        mag = ws.Mag(blurred.width - 2, blurred.height - 2);
+        dir = ws.Dir(blurred.width - 2, blurred.height - 2);
+        nms = ws.Suppressed(mag.width, mag.height);
+        bin = ws.Bin(mag.width - 2, mag.height - 2);
+        rowSums = ws.Sums(2 * mag.height);
+    }
+    
+    /*
+     * Returns true if an image of the given size keeps at least one pixel after the blur trims radius pixels from
+     * each side and the gradient and suppression trim one more each.
+     */
+    private boolean Fits(int width, int height) {
+        return width > 2 * radius + 4 && height > 2 * radius + 4;
+    }
+    
+    /**
+     * Call this method to derive the kernel radius from sigma and the tolerance and to look up the matching kernels
+     * in the shared cache, so that detecting an image needs no lookup.
+     * 
+     * @return void
+     */
+    private void Kernels() {
+        radius = Gaussian.Radius(sigma, tolerance);
+        mask = Gaussian.NormalizedKernel(radius, sigma);
+        fixed = Gaussian.FixedKernel(radius, sigma);
+    }
+    
+    /**
+     * Call this method to blur the grayscale image with the selected blur mode.
+     * 
+     * @return void
+     */
+    private void Blur() {
+        if (blurMode == BlurMode.IIR) {
+            smooth = ws.Smooth(raw.width, raw.height);
+            Bands.Run(pool, raw.height, iirRowTask);
+            Bands.Run(pool, raw.width, COLUMN_BAND, iirColumnTask);
+        } else if (blurMode == BlurMode.FIXED) {
+            partial = ws.Partial(blurred.width, raw.height);
+            Bands.Run(pool, raw.height, fixedRowTask);
+            Bands.Run(pool, blurred.height, fixedColumnTask);
+        } else {
+            smooth = ws.Smooth(blurred.width, raw.height);
+            Bands.Run(pool, raw.height, blurRowTask);
+            Bands.Run(pool, blurred.height, blurColumnTask);
+        }
+    }
+    
+    /**
+     * Call this method to find the gradient of the blurred image. Deviation thresholds also need the mean and
+     * standard deviation of the magnitudes, merged from the row sums. Histogram thresholds need a histogram of the
+     * magnitudes instead, so then the rows are cut into fixed bands that each count into a histogram of their own.
+     * 
+     * @return void
+     */
+    private void Gradient() {
+        if (thresholdMode == ThresholdMode.DEVIATION) {
+            Bands.Run(pool, mag.height, gradientTask);
+            Statistics();
+        } else {
+            int parts = HistogramParts(mag.height);
+            histograms = ws.Histograms(parts * Histogram.BINS);
+            
+            Bands.Run(pool, parts, 1, histogramTask);
+            Histogram.Merge(histograms, parts);
+        }
+    }
+    
+    /*
+     * Cuts the given number of magnitude rows into bands of histogramBand rows and returns how many bands there are.
+     */
+    private int HistogramParts(int rows) {
+        int parts = (pool == null) ? 1 : pool.getParallelism() * BANDS_PER_THREAD;
+        histogramBand = (rows + parts - 1) / parts;
+        
+        return (rows + histogramBand - 1) / histogramBand;
+    }
+    
+    /*
+     * Finds the gradient of bands [bandStart, bandEnd) of histogramBand rows, counting each row into the band's
+     * histogram right after it is produced.
+     */
+    private void HistogramBands(int bandStart, int bandEnd) {
+        for (int b = bandStart; b < bandEnd; b++) {
+            int base = b * Histogram.BINS;
+            
+            Arrays.fill(histograms, base, base + Histogram.BINS, 0);
+            
+            for (int r = b * histogramBand; r < Math.min((b + 1) * histogramBand, mag.height); r++) {
+                Sobel.GradientRows(blurred, mag, dir, magnitudeMode, r, r + 1);
+                
+                if (Sampled(r) && magnitudeMode == MagnitudeMode.SQUARED) {
+                    Histogram.AddSquared(mag.data, r * mag.stride, mag.width, histograms, base);
+                } else if (Sampled(r)) {
+                    Histogram.Add(mag.data, r * mag.stride, mag.width, histograms, base);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Call this method to find the mean and standard deviation of the gradient magnitude image from the row sums
+     * left by the gradient pass. The rows are merged in order, so the result does not depend on the pool.
+     * 
+     * @return void
+     */
+    private void Statistics() {
+        int height = mag.height;
+        
+        moments.Clear();
+        
+        for (int r = 0; r < height; r++) {
+            if (sampleStep == 1) {
+                moments.Add(mag.width, rowSums[r], rowSums[height + r]);
+            } else if (Sampled(r)) {
+                moments.AddSample(mag.width, rowSums[r], rowSums[height + r]);
+            }
+        }
+        
+        mean = moments.Mean();
+        stDev = moments.Deviation();
+    }
+    
+    /*
+     * Finds the gradient of rows [rowStart, rowEnd) and, while each row is still in cache, stores its sum and sum of
+     * squares in rowSums, so the statistics need no pass of their own over the magnitude image. When sampling, only
+     * sampled rows are summed. SQUARED magnitudes are
+     * summed as their square roots, so the thresholds keep the units of EUCLIDEAN ones; the mean of the true
+     * lengths cannot be had from the squares, so this is the one square root per pixel that SQUARED still takes.
+     */
+    private void GradientRows(int rowStart, int rowEnd) {
+        int width = mag.width;
+        int height = mag.height;
+        float[] m = mag.data;
+        boolean root = magnitudeMode == MagnitudeMode.SQUARED;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            Sobel.GradientRows(blurred, mag, dir, magnitudeMode, r, r + 1);
+            
+            if (Sampled(r)) {
+                rowSums[r] = rowSums[height + r] = 0;
+                Moments.PowerSums(m, r * mag.stride, width, root, rowSums, r, height);
+            }
+        }
+    }
+    
+    /*
+     * The sampling error of a PERCENTILE high threshold, from how far the sampled rows' fractions of pixels below
+     * tHi stray from one another. Each sampled row's count below and width go into rowSums, height apart.
+     */
+    private double PercentileError() {
+        int height = mag.height;
+        int parts = 0;
+        boolean squared = magnitudeMode == MagnitudeMode.SQUARED;
+        
+        for (int r = 0; r < height; r++) {
+            if (Sampled(r)) {
+                rowSums[parts] = Histogram.Below(mag.data, r * mag.stride, mag.width, squared, tHi);
+                rowSums[height + parts] = mag.width;
+                parts++;
+            }
+        }
+        
+        return Histogram.PercentileError(histograms, percentile, rowSums, parts, height);
+    }
+    
+    /*
+     * Whether magnitude row r is in the sample the thresholds are estimated from.
+     */
+    private boolean Sampled(int r) {
+        return sampleStep == 1 || r % sampleStep == Moments.Offset(r / sampleStep, sampleStep);
+    }
+    
+    /**
+     * Call this method to use gradient direction and magnitude to suppress lesser pixels. Suppression only reads
+     * the magnitude plane and writes a separate one, so bands of rows are independent.
+     * 
+     * @return void
+     */
+    private void Suppression() {
+        Bands.Run(pool, nms.height, suppressionTask);
+    }
+    
+    /*
+     * Suppresses the whole magnitude plane into nms, which must be the same size.
+     */
+    static void Suppression(FloatPlane mag, BytePlane dir, FloatPlane nms) {
+        Suppression(mag, dir, nms, 0, mag.height);
+    }
+    
+    /*
+     * Fills rows [rowStart, rowEnd) of nms. Rows and columns on the border of the plane have no neighbour on one side,
+     * so they are always suppressed.
+     */
+    static void Suppression(FloatPlane mag, BytePlane dir, FloatPlane nms, int rowStart, int rowEnd) {
+        int stride = mag.stride;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int rowOut = r * nms.stride;
+            
+            if (r == 0 || r == mag.height - 1) {
+                Arrays.fill(nms.data, rowOut, rowOut + mag.width, 0);
+            } else {
+                SuppressRow(mag.data, r * stride, stride, dir.data, r * dir.stride, nms.data, rowOut, mag.width);
+            }
+        }
+    }
+    
+    /*
+     * Tests each pixel of the magnitude row at mid against its two neighbours along the gradient, found in the rows
+     * stride before and after it, and writes the row to out with every pixel that is not a maximum set to 0. The first
+     * and last pixels have no neighbour on one side and are always 0. The magnitudes are only read, so out must not
+     * overlap them.
+     * 
+     * The neighbours of a pixel with direction code k sit at mid + c - o and mid + c + o, where
+     * o = SUPPRESS_ROW[k] * stride + SUPPRESS_COLUMN[k], so the loop looks the offset up instead of switching on k.
+     */
+    static void SuppressRow(float[] m, int mid, int stride, byte[] d, int rowDir, float[] out, int rowOut, int width) {
+        out[rowOut] = 0;
+        
+        for (int c = 1; c < width - 1; c++) {
+            int code = d[rowDir + c];
+            int o = SUPPRESS_ROW[code] * stride + SUPPRESS_COLUMN[code];
+            float magnitude = m[mid + c];
+            boolean lesser = magnitude < m[mid + c - o] & magnitude < m[mid + c + o];
+            
+            out[rowOut + c] = lesser ? 0 : magnitude;
+        }
+        
+        out[rowOut + width - 1] = 0;
+    }
+    
+    /**
+     * Call this method to use an upper and lower threshold to decided which non-suppressed pixels are edges.
+     * 
+     * @return void
+     */
+    private void Hysteresis() {
+        if (thresholdMode == ThresholdMode.PERCENTILE) {
+            tHi = Histogram.Percentile(histograms, percentile);
+            thresholdError = (sampleStep > 1) ? PercentileError() : 0;
+        } else if (thresholdMode == ThresholdMode.OTSU) {
+            tHi = Histogram.Otsu(histograms);
+            thresholdError = (sampleStep > 1) ? Double.NaN : 0;
+        } else {
+            tHi = mean + (numDev * stDev);    //Magnitude greater than or equal to high threshold is an edge pixel
+            thresholdError = (sampleStep > 1) ? moments.Error(numDev) : 0;
+        }
+        
+        tLo = tHi * tFract;               //Magnitude less than low threshold not an edge, equal or greater possible edge
+        magHi = (magnitudeMode == MagnitudeMode.SQUARED) ? tHi * tHi : tHi;
+        magLo = (magnitudeMode == MagnitudeMode.SQUARED) ? tLo * tLo : tLo;
+        
+        if (hysteresisMode == HysteresisMode.FLOOD && pool != null) {
+            components.Run(pool, nms, bin, ws.Labels(bin.width, bin.height), magHi, magLo);
+        } else if (hysteresisMode == HysteresisMode.FLOOD) {
+            Flood(nms, bin, magHi, magLo, ws);
+        } else if (hysteresisMode == HysteresisMode.PACKED) {
+            packed.Run(pool, nms, bin, ws, magHi, magLo);
+        } else {
+            Bands.Run(pool, bin.height, hysteresisTask);
+        }
+    }
+    
+    /*
+     * Fills rows [rowStart, rowEnd) of the binary image. Only reads the suppressed image, so bands are independent.
+     */
+    private void HysteresisRows(int rowStart, int rowEnd) {
+        HysteresisRows(nms, bin, magHi, magLo, rowStart, rowEnd);
+    }
+    
+    /*
+     * Fills rows [rowStart, rowEnd) of bin from the suppressed magnitude plane with the given thresholds.
+     */
+    static void HysteresisRows(FloatPlane mag, BytePlane bin, double tHi, double tLo, int rowStart, int rowEnd) {
+        int stride = mag.stride;
+        
+        for (int r = rowStart + 1; r < rowEnd + 1; r++) {
+            int mid = r * stride;
+            
+            HysteresisRow(mag.data, mid - stride, mid, mid + stride, mag.width, tHi, tLo, bin.data, (r - 1) * bin.stride);
+        }
+    }
+    
+    /*
+     * Fills one binary row of width - 2 pixels from the suppressed magnitude rows at top, mid and bot.
+     */
+    static void HysteresisRow(float[] m, int top, int mid, int bot, int width, double tHi, double tLo, byte[] b, int rowBin) {
+        int c = Simd.ENABLED ? VectorKernels.HysteresisRow(m, top, mid, bot, width, Simd.AtLeast(tHi), Simd.AtLeast(tLo), b, rowBin) : 1;
+        
+        for (; c < width - 1; c++) {
+            double magnitude = m[mid + c];
+            
+            if (magnitude >= tHi) {
+                b[rowBin + c - 1] = (byte) 255;
+            } else if (magnitude < tLo) {
+                b[rowBin + c - 1] = 0;
+            } else {    //This could be separate method or lambda
+                boolean connected = false;
+                
+                for (int nc = c - 1; nc < c + 2; nc++) {
+                    if (m[top + nc] >= tHi || m[mid + nc] >= tHi || m[bot + nc] >= tHi) {
+                        connected = true;
+                    }
+                }
+                
+                b[rowBin + c - 1] = (byte) ((connected) ? 255 : 0);
+            }
+        }
+    }
+    
+    /*
+     * Fills the binary image with every pixel connected to a strong pixel through pixels at or above the low
+     * threshold. The binary image doubles as the visited mark: a pixel is set to 255 when it is pushed, so each
+     * pixel is pushed at most once and the fill is linear in the number of pixels. Strong pixels on the one pixel
+     * magnitude border outside the binary image also seed the fill, as they count in HysteresisRow.
+     */
+    static void Flood(FloatPlane mag, BytePlane bin, double tHi, double tLo, CannyWorkspace ws) {
+        int width = mag.width;
+        int height = mag.height;
+        int stride = mag.stride;
+        float[] m = mag.data;
+        byte[] b = bin.data;
+        int[] stack = ws.Stack(FLOOD_STACK);
+        
+        for (int r = 0; r < bin.height; r++) {
+            Arrays.fill(b, r * bin.stride, r * bin.stride + bin.width, (byte) 0);
+        }
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                int seed = r * stride + c;
+                boolean inside = r > 0 && r < height - 1 && c > 0 && c < width - 1;
+                
+                if (m[seed] < tHi || (inside && b[(r - 1) * bin.stride + c - 1] != 0)) {
+                    continue;
+                }
+                
+                if (inside) {
+                    b[(r - 1) * bin.stride + c - 1] = (byte) 255;
+                }
+                
+                int top = 0;
+                stack[top++] = seed;
+                
+                while (top > 0) {
+                    int p = stack[--top];
+                    int pr = p / stride;
+                    int pc = p - pr * stride;
+                    
+                    //Visit the 8 neighbours that lie inside the binary image
+                    for (int nr = Math.max(pr - 1, 1); nr <= Math.min(pr + 1, height - 2); nr++) {
+                        for (int nc = Math.max(pc - 1, 1); nc <= Math.min(pc + 1, width - 2); nc++) {
+                            int pos = (nr - 1) * bin.stride + nc - 1;
+                            int q = nr * stride + nc;
+                            
+                            if (b[pos] == 0 && m[q] >= tLo) {
+                                b[pos] = (byte) 255;
+                                
+                                if (top == stack.length) {
+                                    stack = ws.Stack(2 * stack.length);
+                                }
+                                
+                                stack[top++] = q;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
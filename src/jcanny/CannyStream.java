@@ -0,0 +1,239 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * This class runs the Canny edge detector over an image one row at a time, for images too tall to hold
+ * in memory. Input rows are pushed in order from top to bottom, and each output row is handed to a
+ * RowListener as soon as no later input can change it. Only the rows still needed by a stage are kept,
+ * in ring buffers, so memory is O(width x (2 * Gaussian radius + 1)) no matter how tall the image is.
+ * 
+ * A stream never sees the whole gradient magnitude image, so it cannot derive thresholds from its mean and
+ * standard deviation. The thresholds are given up front instead, for example the ones a CannyDetector chose
+ * for a representative image (see getHighThreshold() and getLowThreshold()). Hysteresis uses the 8-neighbour
+ * rule of HysteresisMode.NEIGHBOUR, since following weak chains could need rows that have not arrived yet.
+ * With the same thresholds the rows produced are identical to the rows of the output image of a CannyDetector
+ * in that mode: output row k belongs to input row k + GAUSSIAN_RADIUS + 2, and each output row is
+ * 2 * GAUSSIAN_RADIUS + 4 pixels narrower than the input.
+ * 
+ * @author robert
+ */
+
+public class CannyStream {
+    private static final int NMS_RING = 3;  //Suppressed rows alive at once, all read by hysteresis
+    
+    private final int width;        //Input row width
+    private final int blurWidth;    //Blurred row width
+    private final int magWidth;     //Gradient row width
+    private final int outWidth;     //Output row width
+    private final int window;       //Horizontally blurred rows read by one blurred row
+    private final double tHi;       //Hysteresis high threshold
+    private final double tLo;       //Hysteresis low threshold
+    private final double[] mask;    //Gaussian kernel
+    private final RowListener listener;
+    
+    private final float[] smoothRing;   //Horizontally blurred rows, each stored twice so any window of them is contiguous
+    private final int[] blurRing;   //Last 3 blurred rows
+    private final float[] magRing;  //Last 3 gradient magnitude rows, each stored twice so any 3 of them are contiguous
+    private final byte[] dirRing;   //Last 3 gradient direction rows
+    private final float[] nmsRing;  //Magnitude rows after suppression
+    private final int[] rgbRow;     //Scratch row for pushing BufferedImage rows
+    private final byte[] outRow;    //Output row handed to the listener
+    private long rawRows;           //Input rows pushed so far
+    private long magRows;           //Gradient rows produced so far
+    private long outRows;           //Output rows emitted so far
+    private boolean finished;
+    
+    /**
+     * This interface receives the rows of edges produced by a CannyStream.
+     */
+    public interface RowListener {
+        /**
+         * Called once for each output row, in order.
+         * 
+         * @param row       long, index of the output row
+         * @param edges     byte[], the row's pixels, 0 or (byte) 255; only valid during the call
+         * @param offset    int, index of the row's first pixel in edges
+         * @param width     int, number of pixels in the row
+         */
+        void EdgeRow(long row, byte[] edges, int offset, int width);
+    }
+    
+    /**
+     * Create a stream for input rows of the given width.
+     * 
+     * @param width     int, the number of pixels in each input row
+     * @param hi        double, the hysteresis high threshold
+     * @param lo        double, the hysteresis low threshold
+     * @param listener  RowListener, receives each output row
+     */
+    public CannyStream(int width, double hi, double lo, RowListener listener) {
+        int rad = CannyDetector.GAUSSIAN_RADIUS;
+        
+        if (width < 2 * rad + 5 || listener == null) {
+            throw new IllegalArgumentException("ERROR: Stream rows are too narrow or listener is null!");
+        }
+        
+        this.width = width;
+        this.listener = listener;
+        tHi = hi;
+        tLo = lo;
+        window = 2 * rad + 1;
+        blurWidth = width - 2 * rad;
+        magWidth = blurWidth - 2;
+        outWidth = magWidth - 2;
+        mask = Gaussian.NormalizedKernel(rad, CannyDetector.GAUSSIAN_INTENSITY);
+        smoothRing = new float[2 * window * blurWidth];
+        blurRing = new int[3 * blurWidth];
+        magRing = new float[6 * magWidth];
+        dirRing = new byte[3 * magWidth];
+        nmsRing = new float[NMS_RING * magWidth];
+        rgbRow = new int[width];
+        outRow = new byte[outWidth];
+    }
+    
+    /**
+     * @return width    int, the number of pixels in each output row
+     */
+    public int getOutputWidth() {
+        return outWidth;
+    }
+    
+    /**
+     * @return rows     long, the number of output rows emitted so far
+     */
+    public long getOutputRows() {
+        return outRows;
+    }
+    
+    /**
+     * Send this method the next input row as grayscale values 0-255.
+     * 
+     * @param gray      int[], array holding the row
+     * @param offset    int, index of the row's first pixel in gray
+     */
+    public void PushRow(int[] gray, int offset) {
+        if (finished) {
+            throw new IllegalStateException("ERROR: Stream is already finished!");
+        }
+        
+        int slot = (int) (rawRows % window);
+        
+        Gaussian.HorizontalRow(gray, offset, mask, smoothRing, slot * blurWidth, blurWidth);
+        System.arraycopy(smoothRing, slot * blurWidth, smoothRing, (slot + window) * blurWidth, blurWidth);
+        rawRows++;
+        
+        if (rawRows >= window) {
+            long b = rawRows - window;
+            
+            Gaussian.VerticalRow(smoothRing, (int) (b % window) * blurWidth, blurWidth, mask, blurRing, (int) (b % 3) * blurWidth, blurWidth);
+            BlurredRow(b);
+        }
+    }
+    
+    /**
+     * Send this method a BufferedImage holding the next rows of the input, such as one strip of a larger scan.
+     * Its width must match the stream's.
+     * 
+     * @param strip     BufferedImage, the next rows of the input
+     */
+    public void PushRows(BufferedImage strip) {
+        if (strip.getWidth() != width) {
+            throw new IllegalArgumentException("ERROR: Strip width does not match stream!");
+        }
+        
+        for (int y = 0; y < strip.getHeight(); y++) {
+            ImageUtils.GSRows(strip, y, y + 1, rgbRow, 0, width);
+            PushRow(rgbRow, 0);
+        }
+    }
+    
+    /**
+     * Call this method after the last input row to emit the output rows that were waiting on rows below them.
+     */
+    public void Finish() {
+        if (!finished) {
+            finished = true;
+            
+            //The last gradient row has no row below it, so it is suppressed entirely and the row above it can be emitted
+            if (magRows >= 3) {
+                long j = magRows - 1;
+                int slot = (int) (j % NMS_RING) * magWidth;
+                
+                Arrays.fill(nmsRing, slot, slot + magWidth, 0);
+                EmitRow(j - 1);
+            }
+        }
+    }
+    
+    /*
+     * Computes gradient row b - 2 once blurred row b is available.
+     */
+    private void BlurredRow(long b) {
+        if (b >= 2) {
+            long g = b - 2;
+            int top = (int) (g % 3) * blurWidth;
+            int mid = (int) ((g + 1) % 3) * blurWidth;
+            int bot = (int) ((g + 2) % 3) * blurWidth;
+            int slot = (int) (g % 3) * magWidth;
+            
+            Sobel.GradientRow(blurRing, top, mid, bot, magRing, slot, dirRing, slot, magWidth);
+            GradientRow(g);
+        }
+    }
+    
+    /*
+     * Suppresses gradient row g - 1, now that the row below it is known, and emits output row g - 3, whose three
+     * suppressed rows are then final. Gradient row 0 has no row above it and is suppressed entirely.
+     */
+    private void GradientRow(long g) {
+        int slot = (int) (g % 3) * magWidth;
+        
+        magRows++;
+        System.arraycopy(magRing, slot, magRing, slot + 3 * magWidth, magWidth);
+        
+        if (g == 0) {
+            Arrays.fill(nmsRing, 0, magWidth, 0);
+        } else if (g >= 2) {
+            long r = g - 1;
+            int mid = (int) ((r - 1) % 3 + 1) * magWidth;
+            
+            CannyDetector.SuppressRow(magRing, mid, magWidth, dirRing, (int) (r % 3) * magWidth, nmsRing, (int) (r % NMS_RING) * magWidth, magWidth);
+            
+            if (r >= 2) {
+                EmitRow(r - 1);
+            }
+        }
+    }
+    
+    /*
+     * Applies hysteresis with suppressed row j as the centre and hands the result to the listener as output row j - 1.
+     */
+    private void EmitRow(long j) {
+        int top = (int) ((j - 1) % NMS_RING) * magWidth;
+        int mid = (int) (j % NMS_RING) * magWidth;
+        int bot = (int) ((j + 1) % NMS_RING) * magWidth;
+        
+        CannyDetector.HysteresisRow(nmsRing, top, mid, bot, magWidth, tHi, tLo, outRow, 0);
+        listener.EdgeRow(j - 1, outRow, 0, outWidth);
+        outRows++;
+    }
+}
@@ -0,0 +1,658 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class runs the Canny edge detector over an image one tile at a time, for images far too large for a
+ * single BufferedImage or for int indexing. The image is read through a Source and the edges are written through
+ * a Sink, one square tile at a time, so memory is bounded by the tile size times the number of threads. The tile
+ * buffers live only for one call to CannyEdges(), so pool threads do not hold on to them afterwards.
+ * 
+ * Each tile is read with a halo of GAUSSIAN_RADIUS + 3 pixels on every side (GAUSSIAN_RADIUS + 2 on the sides
+ * at the edge of the image), which is exactly what blur, Sobel, suppression and the 8-neighbour hysteresis check
+ * read. Edges that cross a tile seam are therefore decided from the same pixels as in a whole-image run, and the
+ * stitched output matches that of a CannyDetector in HysteresisMode.NEIGHBOUR. Unless thresholds are set
+ * explicitly, a first pass over the tiles computes the gradient magnitude's mean and standard deviation, and a
+ * second pass produces the edges.
+ * 
+ * In HysteresisMode.FLOOD a weak chain may run across any number of tiles to its strong pixel. Each tile is then
+ * labelled with union-find, as a pooled detector labels its bands, and only the components touching the tile's
+ * border are kept between passes. Those are joined across the seams before the tiles are labelled again and
+ * written, so the output matches that of a CannyDetector in FLOOD mode at the cost of one more pass.
+ * 
+ * Output pixel (x, y) belongs to input pixel (x + BORDER, y + BORDER), as with CannyDetector.
+ * 
+ * @author robert
+ */
+
+public class CannyTiler {
+    public static final int BORDER = CannyDetector.GAUSSIAN_RADIUS + 2;    //Input pixels lost on each side
+    public static final int DEFAULT_TILE = 1024;
+    private static final int SUPPRESSION_HALO = 1;      //Extra rows and columns suppression reads on each side
+    
+    private final int numDev;       //Number of standard deviations above mean for high threshold
+    private final double tFract;    //Low threshold is this fraction of high threshold
+    private final double[] mask;    //Gaussian kernel
+    private int tileSize = DEFAULT_TILE;
+    private ForkJoinPool pool;      //Pool that runs tiles, null for sequential
+    private boolean fixed;          //Thresholds were set by the caller
+    private ThresholdMode thresholdMode = ThresholdMode.DEVIATION;
+    private HysteresisMode hysteresisMode = HysteresisMode.NEIGHBOUR;
+    private double percentile = CannyDetector.DEFAULT_PERCENTILE;  //Fraction of pixels below the high threshold
+    private double sampleFraction = 1;  //Fraction of each tile's magnitude rows the statistics pass reads
+    private double thresholdError;  //95% bound on the high threshold's sampling error
+    private double tHi;             //Hysteresis high threshold
+    private double tLo;             //Hysteresis low threshold
+    
+    /**
+     * This interface supplies grayscale pixels of the input image.
+     */
+    public interface Source {
+        /**
+         * @return width    int, width of the whole input image
+         */
+        int getWidth();
+        
+        /**
+         * @return height   int, height of the whole input image
+         */
+        int getHeight();
+        
+        /**
+         * Fill gs with the grayscale values, 0-255, of the region with the given top-left corner and gs's size.
+         * May be called from several threads at once, for different regions.
+         * 
+         * @param x     int, left column of the region
+         * @param y     int, top row of the region
+         * @param gs    IntPlane, receives the region
+         */
+        void ReadGray(int x, int y, IntPlane gs);
+    }
+    
+    /**
+     * This interface receives tiles of the output edge image.
+     */
+    public interface Sink {
+        /**
+         * Called once for each output tile. May be called from several threads at once, for different tiles.
+         * 
+         * @param x         int, left column of the tile in the output image
+         * @param y         int, top row of the tile in the output image
+         * @param edges     BytePlane, the tile's pixels, 0 or 255; only valid during the call
+         */
+        void EdgeTile(int x, int y, BytePlane edges);
+    }
+    
+    /**
+     * Create a tiler with the given hysteresis parameters, with the same meaning as CannyDetector's.
+     * 
+     * @param numberDeviations  Set high threshold as a function of number of standard deviations above the mean.
+     * @param fract             Set low threshold as a fraction of the high threshold
+     */
+    public CannyTiler(int numberDeviations, double fract) {
+        numDev = numberDeviations;
+        tFract = fract;
+        mask = Gaussian.NormalizedKernel(CannyDetector.GAUSSIAN_RADIUS, CannyDetector.GAUSSIAN_INTENSITY);
+    }
+    
+    /**
+     * @param size  int, width and height of the output tiles, at least 16
+     */
+    public void setTileSize(int size) {
+        if (size < 16) {
+            throw new IllegalArgumentException("ERROR: Tile size must be at least 16!");
+        }
+        
+        tileSize = size;
+    }
+    
+    /**
+     * @param pool  ForkJoinPool, the pool to run tiles on, or null to run them on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Call this method to use fixed hysteresis thresholds and skip the statistics pass.
+     * 
+     * @param hi    double, the high threshold
+     * @param lo    double, the low threshold
+     */
+    public void setThresholds(double hi, double lo) {
+        fixed = true;
+        tHi = hi;
+        tLo = lo;
+    }
+    
+    /**
+     * Call this method to choose how the statistics pass picks the high threshold, as with CannyDetector. The
+     * histogram modes keep one histogram of a fixed size however large the image is.
+     * 
+     * @param mode  ThresholdMode, DEVIATION (the default), PERCENTILE or OTSU
+     */
+    public void setThresholdMode(ThresholdMode mode) {
+        thresholdMode = mode;
+    }
+    
+    /**
+     * Call this method to choose how weak pixels are kept. NEIGHBOUR (the default) decides every pixel from its
+     * tile alone. FLOOD and PACKED both keep every weak pixel connected to a strong pixel, as a detector in FLOOD
+     * mode does: the components touching each tile's border are joined across the seams, which costs one more
+     * pass over the tiles and the labels of every tile's border pixels in between.
+     * 
+     * @param mode  HysteresisMode, NEIGHBOUR, FLOOD or PACKED
+     */
+    public void setHysteresisMode(HysteresisMode mode) {
+        hysteresisMode = mode;
+    }
+    
+    /**
+     * Call this method to set the fraction of pixels that fall below the high threshold in PERCENTILE mode.
+     * 
+     * @param fraction  double, between 0 and 1; 0.9 by default
+     */
+    public void setPercentile(double fraction) {
+        if (fraction <= 0 || fraction >= 1) {
+            throw new IllegalArgumentException("ERROR: Percentile must be between 0 and 1!");
+        }
+        
+        percentile = fraction;
+    }
+    
+    /**
+     * Call this method to estimate the thresholds from a sample instead of the whole image. Each tile of the
+     * statistics pass then blurs and differentiates only one strip of about fraction of its rows, at a fixed
+     * pseudo-random height, so the pass reads roughly that fraction of the image plus the strips' halos.
+     * 
+     * @param fraction  double, the fraction of each tile's rows to sample, between 0 and 1; 1 (the default) reads all
+     */
+    public void setSampleFraction(double fraction) {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("ERROR: Sample fraction must be between 0 and 1!");
+        }
+        
+        sampleFraction = fraction;
+    }
+    
+    /**
+     * @return error    double, the 95% bound on the last high threshold's sampling error, as with CannyDetector
+     */
+    public double getThresholdError() {
+        return thresholdError;
+    }
+    
+    /**
+     * @return tHi  double, the high hysteresis threshold used for the last image
+     */
+    public double getHighThreshold() {
+        return tHi;
+    }
+    
+    /**
+     * @return tLo  double, the low hysteresis threshold used for the last image
+     */
+    public double getLowThreshold() {
+        return tLo;
+    }
+    
+    /**
+     * Send this method a source and a sink to detect the edges of the whole source image, tile by tile.
+     * The output image is 2 * BORDER pixels narrower and shorter than the input.
+     * 
+     * @param src   Source, supplies the input image
+     * @param sink  Sink, receives the output tiles
+     */
+    public void CannyEdges(Source src, Sink sink) {
+        int outWidth = src.getWidth() - 2 * BORDER;
+        int outHeight = src.getHeight() - 2 * BORDER;
+        
+        if (outWidth < 1 || outHeight < 1 || numDev <= 0 || tFract <= 0) {
+            throw new IllegalArgumentException("ERROR: Image is too small or parameters are invalid!");
+        }
+        
+        Queue<CannyWorkspace> spare = new ConcurrentLinkedQueue<>();    //Workspaces not in use by a band of tiles
+        
+        if (!fixed) {
+            Statistics(src, spare);
+        }
+        
+        int cols = (outWidth + tileSize - 1) / tileSize;
+        int rows = (outHeight + tileSize - 1) / tileSize;
+        
+        if (hysteresisMode != HysteresisMode.NEIGHBOUR) {
+            Flood(src, sink, spare, cols, rows, outWidth, outHeight);
+            return;
+        }
+        
+        Bands.Run(pool, cols * rows, 1, (tileStart, tileEnd) -> {
+            CannyWorkspace ws = Take(spare);
+            
+            for (int t = tileStart; t < tileEnd; t++) {
+                EdgeTile(src, sink, ws, (t % cols) * tileSize, (t / cols) * tileSize, outWidth, outHeight);
+            }
+            
+            spare.add(ws);
+        });
+    }
+    
+    /*
+     * Keeps every weak pixel connected to a strong pixel anywhere in the image. A first pass labels each tile and
+     * numbers the components that touch its border, and notes which of them hold a strong pixel. Those components
+     * are then joined along every seam and across every corner, on this thread, with numbers the same whatever the
+     * pool. A second pass labels each tile again and also keeps the border components joined to a strong one.
+     */
+    private void Flood(Source src, Sink sink, Queue<CannyWorkspace> spare, int cols, int rows, int outWidth, int outHeight) {
+        int tiles = cols * rows;
+        int[][] borders = new int[tiles][];         //Component number of each tile's border pixels, -1 if none
+        boolean[][] strong = new boolean[tiles][];  //Whether each of a tile's border components is strong
+        int[] base = new int[tiles + 1];            //Global number of each tile's first border component
+        
+        Bands.Run(pool, tiles, 1, (tileStart, tileEnd) -> {
+            CannyWorkspace ws = Take(spare);
+            Components components = new Components();
+            
+            for (int t = tileStart; t < tileEnd; t++) {
+                int x = (t % cols) * tileSize;
+                int y = (t / cols) * tileSize;
+                IntPlane labels = LabelTile(src, ws, components, x, y, Math.min(tileSize, outWidth - x), Math.min(tileSize, outHeight - y));
+                int[] border = new int[2 * (labels.width + labels.height)];
+                int[] roots = BorderRoots(labels, border);
+                
+                strong[t] = new boolean[roots.length];
+                
+                for (int k = 0; k < roots.length; k++) {
+                    strong[t][k] = Components.Kept(labels.data, roots[k]);
+                }
+                
+                for (int p = 0; p < border.length; p++) {
+                    border[p] = (border[p] < 0) ? -1 : Arrays.binarySearch(roots, border[p]);
+                }
+                
+                borders[t] = border;
+            }
+            
+            spare.add(ws);
+        });
+        
+        for (int t = 0; t < tiles; t++) {
+            base[t + 1] = base[t] + strong[t].length;
+        }
+        
+        int[] parent = new int[base[tiles]];        //Union-find forest over all border components
+        boolean[] kept = new boolean[base[tiles]];
+        
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        
+        for (int t = 0; t < tiles; t++) {
+            int col = t % cols;
+            int row = t / cols;
+            int width = Math.min(tileSize, outWidth - col * tileSize);
+            int height = Math.min(tileSize, outHeight - row * tileSize);
+            
+            //Right column to the left column of the tile to the right, which has the same height
+            if (col + 1 < cols) {
+                int right = Math.min(tileSize, outWidth - (col + 1) * tileSize);
+                
+                for (int r = 0; r < height; r++) {
+                    for (int n = Math.max(r - 1, 0); n <= Math.min(r + 1, height - 1); n++) {
+                        Join(parent, base, borders, t, 2 * width + height + r, t + 1, 2 * right + n);
+                    }
+                }
+            }
+            
+            //Bottom row to the top row of the tile below, which has the same width, and to the corners beside it
+            if (row + 1 < rows) {
+                for (int c = 0; c < width; c++) {
+                    for (int n = Math.max(c - 1, 0); n <= Math.min(c + 1, width - 1); n++) {
+                        Join(parent, base, borders, t, width + c, t + cols, n);
+                    }
+                }
+                
+                if (col + 1 < cols) {
+                    Join(parent, base, borders, t, 2 * width - 1, t + cols + 1, 0);
+                }
+                
+                if (col > 0) {
+                    Join(parent, base, borders, t, width, t + cols - 1, tileSize - 1);
+                }
+            }
+        }
+        
+        //Point every component straight at its root, so the second pass only reads the forest
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = Components.Find(parent, i);
+        }
+        
+        for (int t = 0; t < tiles; t++) {
+            for (int k = 0; k < strong[t].length; k++) {
+                kept[parent[base[t] + k]] |= strong[t][k];
+            }
+        }
+        
+        Bands.Run(pool, tiles, 1, (tileStart, tileEnd) -> {
+            CannyWorkspace ws = Take(spare);
+            Components components = new Components();
+            
+            for (int t = tileStart; t < tileEnd; t++) {
+                int x = (t % cols) * tileSize;
+                int y = (t / cols) * tileSize;
+                IntPlane labels = LabelTile(src, ws, components, x, y, Math.min(tileSize, outWidth - x), Math.min(tileSize, outHeight - y));
+                int[] roots = BorderRoots(labels, borders[t]);
+                BytePlane bin = ws.Bin(labels.width, labels.height);
+                
+                for (int k = 0; k < roots.length; k++) {
+                    if (kept[parent[base[t] + k]]) {
+                        Components.Keep(labels.data, roots[k]);
+                    }
+                }
+                
+                components.Output(null, labels, bin);
+                sink.EdgeTile(x, y, bin);
+            }
+            
+            spare.add(ws);
+        });
+    }
+    
+    /*
+     * Joins border pixel p of tile t to border pixel q of tile u, if both are candidates.
+     */
+    private static void Join(int[] parent, int[] base, int[][] borders, int t, int p, int u, int q) {
+        int a = borders[t][p];
+        int b = borders[u][q];
+        
+        if (a >= 0 && b >= 0) {
+            Components.Union(parent, base[t] + a, base[u] + b);
+        }
+    }
+    
+    /*
+     * Fills border with the root of each border pixel of labels, or -1: first the top row, then the bottom row, the
+     * left column and the right column. Returns the distinct roots in increasing order, so the k-th is numbered k.
+     */
+    private static int[] BorderRoots(IntPlane labels, int[] border) {
+        int width = labels.width;
+        int height = labels.height;
+        int[] l = labels.data;
+        
+        for (int c = 0; c < width; c++) {
+            border[c] = Components.Root(l, c);
+            border[width + c] = Components.Root(l, (height - 1) * labels.stride + c);
+        }
+        
+        for (int r = 0; r < height; r++) {
+            border[2 * width + r] = Components.Root(l, r * labels.stride);
+            border[2 * width + height + r] = Components.Root(l, r * labels.stride + width - 1);
+        }
+        
+        int[] roots = border.clone();
+        int count = 0;
+        
+        Arrays.sort(roots);
+        
+        for (int i = 0; i < roots.length; i++) {
+            if (roots[i] >= 0 && (count == 0 || roots[count - 1] != roots[i])) {
+                roots[count++] = roots[i];
+            }
+        }
+        
+        return Arrays.copyOf(roots, count);
+    }
+    
+    /*
+     * Finds the suppressed gradient of the output tile at (x, y) with the given size, and its one pixel border, in
+     * the given workspace, and labels the tile's candidates.
+     */
+    private IntPlane LabelTile(Source src, CannyWorkspace ws, Components components, int x, int y, int width, int height) {
+        FloatPlane mag = Gradient(src, ws, x, y, width + 2 * BORDER, height + 2 * BORDER);
+        FloatPlane nms = ws.Suppressed(mag.width, mag.height);
+        IntPlane labels = ws.Labels(width, height);
+        
+        CannyDetector.Suppression(mag, ws.dir, nms);
+        components.Label(null, nms, labels, tHi, tLo);
+        
+        return labels;
+    }
+    
+    /*
+     * Returns a spare workspace, or a new one if every workspace is in use. A band of tiles holds one workspace from
+     * start to end, so a call makes at most as many as there are bands running at once, and drops them on return.
+     */
+    private static CannyWorkspace Take(Queue<CannyWorkspace> spare) {
+        CannyWorkspace ws = spare.poll();
+        
+        return (ws == null) ? new CannyWorkspace() : ws;
+    }
+    
+    /*
+     * Computes the thresholds from the gradient magnitude of every pixel, one magnitude tile at a time. Each tile's
+     * sums are kept separately and combined in tile order, so the result does not depend on the pool.
+     */
+    private void Statistics(Source src, Queue<CannyWorkspace> spare) {
+        int rad = CannyDetector.GAUSSIAN_RADIUS;
+        int magWidth = src.getWidth() - 2 * rad - 2;
+        int magHeight = src.getHeight() - 2 * rad - 2;
+        int cols = (magWidth + tileSize - 1) / tileSize;
+        int rows = (magHeight + tileSize - 1) / tileSize;
+        int tiles = cols * rows;
+        boolean sampled = sampleFraction < 1;
+        double[] powers = new double[2 * tiles];    //Sums, then sums of squares, tiles apart
+        double[] counts = new double[tiles];
+        int[] hist = new int[Histogram.BINS];
+        boolean keep = sampled && thresholdMode == ThresholdMode.PERCENTILE;
+        int[] tileHists = keep ? new int[tiles * Histogram.BINS] : null;   //Each tile's own histogram, for the error
+        Moments moments = new Moments();
+        
+        Bands.Run(pool, tiles, 1, (tileStart, tileEnd) -> {
+            CannyWorkspace ws = Take(spare);
+            
+            for (int t = tileStart; t < tileEnd; t++) {
+                int x = (t % cols) * tileSize;
+                int y = (t / cols) * tileSize;
+                int width = Math.min(tileSize, magWidth - x);
+                int height = Math.min(tileSize, magHeight - y);
+                
+                //A sampled tile reads one strip of its rows, at a fixed pseudo-random height
+                if (sampled) {
+                    int strip = Math.max(1, (int) Math.ceil(sampleFraction * height));
+                    
+                    y += Moments.Offset(t, height - strip + 1);
+                    height = strip;
+                }
+                
+                FloatPlane mag = Gradient(src, ws, x, y, width + 2 * rad + 2, height + 2 * rad + 2);
+                
+                for (int r = 0; r < mag.height; r++) {
+                    Moments.PowerSums(mag.data, r * mag.stride, mag.width, false, powers, t, tiles);
+                }
+                
+                counts[t] = (double) width * height;
+                
+                if (thresholdMode != ThresholdMode.DEVIATION) {
+                    CountTile(mag, ws, hist, tileHists, t);
+                }
+            }
+            
+            spare.add(ws);
+        });
+        
+        for (int t = 0; t < tiles; t++) {
+            if (sampled) {
+                moments.AddSample(counts[t], powers[t], powers[tiles + t]);
+            } else {
+                moments.Add(counts[t], powers[t], powers[tiles + t]);
+            }
+        }
+        
+        if (thresholdMode == ThresholdMode.PERCENTILE) {
+            tHi = Histogram.Percentile(hist, percentile);
+            thresholdError = sampled ? PercentileError(hist, tileHists, counts) : 0;
+        } else if (thresholdMode == ThresholdMode.OTSU) {
+            tHi = Histogram.Otsu(hist);
+            thresholdError = sampled ? Double.NaN : 0;
+        } else {
+            tHi = moments.Mean() + (numDev * moments.Deviation());
+            thresholdError = sampled ? moments.Error(numDev) : 0;
+        }
+        
+        tLo = tHi * tFract;
+    }
+    
+    /*
+     * The sampling error of a PERCENTILE high threshold, from how far each tile's strip, counted in tileHists, strays
+     * from the others in its fraction of pixels below tHi.
+     */
+    private double PercentileError(int[] hist, int[] tileHists, double[] counts) {
+        int tiles = counts.length;
+        double[] parts = new double[2 * tiles];     //Pixels below tHi, then all pixels, tiles apart
+        
+        for (int t = 0; t < tiles; t++) {
+            for (int b = 0; b < Math.min(tHi, Histogram.BINS); b++) {
+                parts[t] += tileHists[t * Histogram.BINS + b];
+            }
+            
+            parts[tiles + t] = counts[t];
+        }
+        
+        return Histogram.PercentileError(hist, percentile, parts, tiles, tiles);
+    }
+    
+    /*
+     * Counts a magnitude tile into a histogram in the workspace, then adds that into the shared one, and keeps it as
+     * tile t of tileHists unless that is null. Counts add up the same in any order, so the pool does not change the
+     * result.
+     */
+    private void CountTile(FloatPlane mag, CannyWorkspace ws, int[] hist, int[] tileHists, int t) {
+        int[] local = ws.Histograms(Histogram.BINS);
+        
+        Arrays.fill(local, 0, Histogram.BINS, 0);
+        
+        for (int r = 0; r < mag.height; r++) {
+            Histogram.Add(mag.data, r * mag.stride, mag.width, local, 0);
+        }
+        
+        if (tileHists != null) {
+            System.arraycopy(local, 0, tileHists, t * Histogram.BINS, Histogram.BINS);
+        }
+        
+        synchronized (hist) {
+            for (int b = 0; b < Histogram.BINS; b++) {
+                hist[b] += local[b];
+            }
+        }
+    }
+    
+    /*
+     * Detects the edges of the output tile at (x, y) in the given workspace and hands them to the sink.
+     */
+    private void EdgeTile(Source src, Sink sink, CannyWorkspace ws, int x, int y, int outWidth, int outHeight) {
+        int width = Math.min(tileSize, outWidth - x);
+        int height = Math.min(tileSize, outHeight - y);
+        int left = Math.min(SUPPRESSION_HALO, x);
+        int top = Math.min(SUPPRESSION_HALO, y);
+        int right = Math.min(SUPPRESSION_HALO, outWidth - x - width);
+        int bottom = Math.min(SUPPRESSION_HALO, outHeight - y - height);
+        FloatPlane mag = Gradient(src, ws, x - left, y - top, width + left + right + 2 * BORDER, height + top + bottom + 2 * BORDER);
+        FloatPlane nms = ws.Suppressed(mag.width, mag.height);
+        BytePlane bin = ws.Bin(width, height);
+        int stride = nms.stride;
+        
+        CannyDetector.Suppression(mag, ws.dir, nms);
+        
+        for (int r = 0; r < height; r++) {
+            int mid = (top + r + 1) * stride + left;
+            
+            CannyDetector.HysteresisRow(nms.data, mid - stride, mid, mid + stride, width + 2, tHi, tLo, bin.data, r * bin.stride);
+        }
+        
+        sink.EdgeTile(x, y, bin);
+    }
+    
+    /*
+     * Reads the input region with the given corner and size, then blurs it and finds its gradient in the given
+     * workspace. The returned magnitude plane is 2 * GAUSSIAN_RADIUS + 2 pixels narrower and shorter than the region.
+     */
+    private FloatPlane Gradient(Source src, CannyWorkspace ws, int x, int y, int width, int height) {
+        int rad = CannyDetector.GAUSSIAN_RADIUS;
+        IntPlane raw = ws.Raw(width, height);
+        IntPlane blurred = ws.Blurred(width - 2 * rad, height - 2 * rad);
+        FloatPlane smooth = ws.Smooth(blurred.width, height);
+        FloatPlane mag = ws.Mag(blurred.width - 2, blurred.height - 2);
+        BytePlane dir = ws.Dir(blurred.width - 2, blurred.height - 2);
+        
+        src.ReadGray(x, y, raw);
+        Gaussian.BlurGS(raw, mask, smooth, blurred);
+        Sobel.Gradient(blurred, mag, dir);
+        
+        return mag;
+    }
+    
+    /**
+     * Send this method a BufferedImage to get a Source that reads it. Useful for testing and for images that fit in memory.
+     * 
+     * @param img   BufferedImage, the input image
+     * @return src  Source, reads grayscale regions of img
+     */
+    public static Source ImageSource(BufferedImage img) {
+        return new Source() {
+            @Override
+            public int getWidth() {
+                return img.getWidth();
+            }
+            
+            @Override
+            public int getHeight() {
+                return img.getHeight();
+            }
+            
+            @Override
+            public void ReadGray(int x, int y, IntPlane gs) {
+                ImageUtils.GSPlane(img.getSubimage(x, y, gs.width, gs.height), gs);
+            }
+        };
+    }
+    
+    /**
+     * Send this method a TYPE_INT_RGB, TYPE_BYTE_GRAY or TYPE_BYTE_BINARY BufferedImage, 2 * BORDER pixels narrower
+     * and shorter than the input, to get a Sink that writes the output tiles into it. Tiles of a TYPE_BYTE_BINARY
+     * image can share a byte at their seams, so those are written one at a time.
+     * 
+     * @param img   BufferedImage, receives the output image
+     * @return sink Sink, writes tiles into img
+     */
+    public static Sink ImageSink(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            return (x, y, edges) -> {
+                synchronized (img) {
+                    ImageUtils.GSImg(edges, img.getSubimage(x, y, edges.width, edges.height));
+                }
+            };
+        }
+        
+        return (x, y, edges) -> ImageUtils.GSImg(edges, img.getSubimage(x, y, edges.width, edges.height));
+    }
+}
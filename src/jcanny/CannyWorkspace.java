@@ -0,0 +1,223 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.Arrays;
+
+/**
+ * This class owns the intermediate images used by a CannyDetector. The buffers are kept between calls
+ * and reused for any image of the same or smaller size, so once a workspace has seen the largest image
+ * it will be given, repeated detection allocates no new buffers. getAllocatedBytes() reports how many
+ * bytes of buffers the workspace has allocated so far, which lets callers check that a steady stream of
+ * frames is allocation free.
+ * 
+ * Like a CannyDetector, a workspace must not be used by more than one thread at a time.
+ * 
+ * @author robert
+ */
+
+public class CannyWorkspace {
+    IntPlane raw;           //Grayscale input
+    IntPlane blurred;       //Gaussian blurred input
+    FloatPlane mag;         //Gradient magnitude
+    FloatPlane nms;         //Gradient magnitude after non-maximum suppression
+    FloatPlane smooth;      //Unrounded output of the horizontal or recursive blur
+    IntPlane partial;       //Output of the fixed-point horizontal blur
+    IntPlane labels;        //Connected component labels for parallel hysteresis
+    BytePlane dir;          //Gradient direction codes
+    BytePlane bin;          //Binary edge image
+    private double[] sums;              //Per-row partial sums
+    private int[] stack;                //Pixels waiting to be visited by the hysteresis flood fill
+    private long[] words;               //Packed bit masks for hysteresis
+    private int[] histograms;           //Magnitude histograms, one per band
+    private long allocatedBytes;        //Bytes of buffers allocated by this workspace
+    
+    /**
+     * Create an empty workspace. Buffers are allocated on first use.
+     */
+    public CannyWorkspace() {
+    }
+    
+    /**
+     * Create a workspace with buffers already sized for images up to the given size, for a detector with the default
+     * settings. Each plane is sized for the whole image, which covers any kernel radius. The hysteresis buffers
+     * depend on the mode, so CannyDetector.Reserve() sizes those, the flood fill stack included.
+     * 
+     * @param width     int, the width of the largest expected input image
+     * @param height    int, the height of the largest expected input image
+     */
+    public CannyWorkspace(int width, int height) {
+        Raw(width, height);
+        Blurred(width, height);
+        Smooth(width, height);
+        Mag(width, height);
+        Dir(width, height);
+        Suppressed(width, height);
+        Bin(width, height);
+        Sums(2 * height);
+    }
+    
+    /**
+     * @return bytes    long, the total size in bytes of all buffers this workspace has allocated
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+    
+    IntPlane Raw(int width, int height) {
+        raw = Ints(raw, width, height);
+        
+        return raw;
+    }
+    
+    IntPlane Blurred(int width, int height) {
+        blurred = Ints(blurred, width, height);
+        
+        return blurred;
+    }
+    
+    FloatPlane Mag(int width, int height) {
+        mag = Floats(mag, width, height);
+        
+        return mag;
+    }
+    
+    FloatPlane Smooth(int width, int height) {
+        smooth = Floats(smooth, width, height);
+        
+        return smooth;
+    }
+    
+    FloatPlane Suppressed(int width, int height) {
+        nms = Floats(nms, width, height);
+        
+        return nms;
+    }
+    
+    IntPlane Partial(int width, int height) {
+        partial = Ints(partial, width, height);
+        
+        return partial;
+    }
+    
+    IntPlane Labels(int width, int height) {
+        labels = Ints(labels, width, height);
+        
+        return labels;
+    }
+    
+    BytePlane Dir(int width, int height) {
+        dir = Bytes(dir, width, height);
+        
+        return dir;
+    }
+    
+    BytePlane Bin(int width, int height) {
+        bin = Bytes(bin, width, height);
+        
+        return bin;
+    }
+    
+    /*
+     * Returns an array of at least the given length for per-row sums.
+     */
+    double[] Sums(int rows) {
+        if (sums == null || sums.length < rows) {
+            sums = new double[rows];
+            allocatedBytes += 8L * rows;
+        }
+        
+        return sums;
+    }
+    
+    /*
+     * Returns an array of at least the given length for magnitude histograms.
+     */
+    int[] Histograms(int length) {
+        if (histograms == null || histograms.length < length) {
+            histograms = new int[length];
+            allocatedBytes += 4L * length;
+        }
+        
+        return histograms;
+    }
+    
+    /*
+     * Returns an array of at least the given length for packed bit masks.
+     */
+    long[] Words(int length) {
+        if (words == null || words.length < length) {
+            words = new long[length];
+            allocatedBytes += 8L * length;
+        }
+        
+        return words;
+    }
+    
+    /*
+     * Returns an array of at least the given length for the hysteresis stack. A replacement keeps the old contents,
+     * so a full stack can grow in place.
+     */
+    int[] Stack(int length) {
+        if (stack == null) {
+            stack = new int[length];
+            allocatedBytes += 4L * length;
+        } else if (stack.length < length) {
+            stack = Arrays.copyOf(stack, length);
+            allocatedBytes += 4L * length;
+        }
+        
+        return stack;
+    }
+    
+    /*
+     * Reuses the plane if it is large enough, otherwise replaces it.
+     */
+    private IntPlane Ints(IntPlane plane, int width, int height) {
+        if (plane == null || !plane.Reshape(width, height)) {
+            plane = new IntPlane(width, height);
+            allocatedBytes += 4L * width * height;
+        }
+        
+        return plane;
+    }
+    
+    /*
+     * Reuses the plane if it is large enough, otherwise replaces it.
+     */
+    private BytePlane Bytes(BytePlane plane, int width, int height) {
+        if (plane == null || !plane.Reshape(width, height)) {
+            plane = new BytePlane(width, height);
+            allocatedBytes += (long) width * height;
+        }
+        
+        return plane;
+    }
+    
+    /*
+     * Reuses the plane if it is large enough, otherwise replaces it.
+     */
+    private FloatPlane Floats(FloatPlane plane, int width, int height) {
+        if (plane == null || !plane.Reshape(width, height)) {
+            plane = new FloatPlane(width, height);
+            allocatedBytes += 4L * width * height;
+        }
+        
+        return plane;
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class runs flood-fill hysteresis across a ForkJoinPool by finding connected components with union-find.
+ * Every pixel at or above the low threshold is a candidate and starts as its own component. Each band of rows
+ * joins the candidates inside it, the bands are then joined along their seams, and finally every component
+ * holding a strong pixel is kept. The kept pixels are exactly those CannyDetector.Flood() keeps, whatever the pool.
+ * 
+ * The union-find forest lives in a plane of labels the size of the binary image: a candidate's label is the index
+ * of its parent, a root is its own parent, and pixels below the low threshold are NONE.
+ * 
+ * @author robert
+ */
+
+final class Components {
+    private static final int NONE = Integer.MIN_VALUE;  //Label of a pixel that is not a candidate
+    private static final int MIN_BAND = 32;     //Fewest rows labelled on their own before seams are joined
+    private static final int BANDS_PER_THREAD = 4;
+    
+    private FloatPlane mag;         //Suppressed gradient magnitude
+    private IntPlane labels;        //Union-find forest over the binary image
+    private BytePlane bin;          //Binary edge image
+    private double tHi;             //Hysteresis high threshold
+    private double tLo;             //Hysteresis low threshold
+    private int band;               //Rows per labelling band
+    
+    //Tasks for each pass, built once so that a run allocates nothing but the pool's own work
+    private final Bands.Task labelTask = this::LabelBands;
+    private final Bands.Task flattenTask = this::FlattenRows;
+    private final Bands.Task strongTask = this::StrongRows;
+    private final Bands.Task outputTask = this::OutputRows;
+    
+    /*
+     * Fills bin from mag and the thresholds, using labels (the same size as bin) as scratch.
+     */
+    void Run(ForkJoinPool pool, FloatPlane mag, BytePlane bin, IntPlane labels, double tHi, double tLo) {
+        Label(pool, mag, labels, tHi, tLo);
+        Output(pool, labels, bin);
+    }
+    
+    /*
+     * Labels the candidates of mag, which has a one pixel border around labels, and marks the strong components.
+     * Afterwards every candidate's label leads to its root through Root(), and Kept() tells whether that root's
+     * component holds a strong pixel.
+     */
+    void Label(ForkJoinPool pool, FloatPlane mag, IntPlane labels, double tHi, double tLo) {
+        int height = labels.height;
+        int parts = (pool == null) ? 1 : pool.getParallelism() * BANDS_PER_THREAD;
+        this.mag = mag;
+        this.labels = labels;
+        this.tHi = tHi;
+        this.tLo = tLo;
+        band = Math.max(MIN_BAND, (height + parts - 1) / parts);
+        
+        Bands.Run(pool, (height + band - 1) / band, 1, labelTask);
+        
+        //Seams are few and short, so join them on this thread
+        for (int r = band; r < height; r += band) {
+            JoinRows(r);
+        }
+        
+        Bands.Run(pool, height, flattenTask);
+        Bands.Run(pool, height, strongTask);
+        this.mag = null;
+        this.labels = null;
+    }
+    
+    /*
+     * Writes bin from labels left by Label(): a candidate is an edge if its component is kept.
+     */
+    void Output(ForkJoinPool pool, IntPlane labels, BytePlane bin) {
+        this.labels = labels;
+        this.bin = bin;
+        Bands.Run(pool, bin.height, outputTask);
+        this.labels = null;
+        this.bin = null;
+    }
+    
+    /*
+     * Returns the root of pixel i of labels left by Label(), or -1 if the pixel is not a candidate.
+     */
+    static int Root(int[] l, int i) {
+        int root = l[i];
+        
+        return (root == NONE) ? -1 : (root >= 0) ? root : ~root;
+    }
+    
+    /*
+     * Whether the component with the given root is kept.
+     */
+    static boolean Kept(int[] l, int root) {
+        return l[root] < 0;
+    }
+    
+    /*
+     * Keeps the component with the given root, as if it held a strong pixel.
+     */
+    static void Keep(int[] l, int root) {
+        l[root] = ~root;
+    }
+    
+    /*
+     * Labels bands [bandStart, bandEnd), joining candidates only to candidates in the same band.
+     */
+    private void LabelBands(int bandStart, int bandEnd) {
+        int width = labels.width;
+        int stride = labels.stride;
+        int[] l = labels.data;
+        
+        for (int r = bandStart * band; r < Math.min(bandEnd * band, labels.height); r++) {
+            int rowMag = (r + 1) * mag.stride + 1;
+            int row = r * stride;
+            boolean first = r % band == 0;
+            
+            for (int c = 0; c < width; c++) {
+                double magnitude = mag.data[rowMag + c];
+                int i = row + c;
+                
+                if (magnitude < tLo && magnitude < tHi) {
+                    l[i] = NONE;
+                    continue;
+                }
+                
+                l[i] = i;
+                
+                if (c > 0 && l[i - 1] != NONE) {
+                    Union(l, i - 1, i);
+                }
+                
+                if (!first) {
+                    for (int up = i - stride - Math.min(c, 1); up <= i - stride + Math.min(width - 1 - c, 1); up++) {
+                        if (l[up] != NONE) {
+                            Union(l, up, i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /*
+     * Joins the candidates of row r to their neighbours in row r - 1.
+     */
+    private void JoinRows(int r) {
+        int width = labels.width;
+        int row = r * labels.stride;
+        int[] l = labels.data;
+        
+        for (int c = 0; c < width; c++) {
+            int i = row + c;
+            
+            if (l[i] != NONE) {
+                for (int up = i - labels.stride - Math.min(c, 1); up <= i - labels.stride + Math.min(width - 1 - c, 1); up++) {
+                    if (l[up] != NONE) {
+                        Union(l, up, i);
+                    }
+                }
+            }
+        }
+    }
+    
+    /*
+     * Points every candidate in rows [rowStart, rowEnd) straight at its root. Other bands may be doing the same at
+     * once, but every label read is the pixel's parent or its root, so each walk still ends at the right root.
+     */
+    private void FlattenRows(int rowStart, int rowEnd) {
+        int[] l = labels.data;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int row = r * labels.stride;
+            
+            for (int i = row; i < row + labels.width; i++) {
+                if (l[i] != NONE) {
+                    int root = i;
+                    
+                    while (l[root] != root) {
+                        root = l[root];
+                    }
+                    
+                    l[i] = root;
+                }
+            }
+        }
+    }
+    
+    /*
+     * Marks the root of each strong candidate in rows [rowStart, rowEnd) by storing ~root as its label. Only roots
+     * change, and every other label already points straight at its root, so bands cannot disturb each other.
+     */
+    private void StrongRows(int rowStart, int rowEnd) {
+        int[] l = labels.data;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int row = r * labels.stride;
+            
+            for (int c = 0; c < labels.width; c++) {
+                int root = l[row + c];
+                
+                if (root >= 0 && Strong(mag, tHi, r, c)) {
+                    l[root] = ~root;
+                }
+            }
+        }
+    }
+    
+    /*
+     * Writes rows [rowStart, rowEnd) of the binary image: a candidate is an edge if its root is marked strong.
+     */
+    private void OutputRows(int rowStart, int rowEnd) {
+        int[] l = labels.data;
+        byte[] b = bin.data;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int row = r * labels.stride;
+            int rowBin = r * bin.stride;
+            
+            for (int c = 0; c < labels.width; c++) {
+                int root = l[row + c];
+                boolean edge = root != NONE && (root < 0 || l[root] < 0);
+                
+                b[rowBin + c] = (byte) (edge ? 255 : 0);
+            }
+        }
+    }
+    
+    /*
+     * Whether candidate (r, c) of the binary image seeds the fill: it is strong itself, or it touches a strong pixel
+     * on the one pixel magnitude border outside the binary image, which CannyDetector.Flood() also uses as seeds.
+     */
+    static boolean Strong(FloatPlane mag, double tHi, int r, int c) {
+        int mr = r + 1;
+        int mc = c + 1;
+        float[] m = mag.data;
+        
+        if (m[mr * mag.stride + mc] >= tHi) {
+            return true;
+        }
+        
+        if (mr > 1 && mr < mag.height - 2 && mc > 1 && mc < mag.width - 2) {
+            return false;
+        }
+        
+        for (int nr = mr - 1; nr <= mr + 1; nr++) {
+            for (int nc = mc - 1; nc <= mc + 1; nc++) {
+                boolean border = nr == 0 || nr == mag.height - 1 || nc == 0 || nc == mag.width - 1;
+                
+                if (border && m[nr * mag.stride + nc] >= tHi) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /*
+     * Joins the components of a and b, keeping the smaller root so the forest does not depend on the order of joins.
+     */
+    static void Union(int[] l, int a, int b) {
+        int ra = Find(l, a);
+        int rb = Find(l, b);
+        
+        if (ra < rb) {
+            l[rb] = ra;
+        } else if (rb < ra) {
+            l[ra] = rb;
+        }
+    }
+    
+    /*
+     * Finds the root of x, halving the path on the way.
+     */
+    static int Find(int[] l, int x) {
+        while (l[x] != x) {
+            l[x] = l[l[x]];
+            x = l[x];
+        }
+        
+        return x;
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * This class is a binary edge map packed 64 pixels to a long, a thirty-second of the memory of a TYPE_INT_RGB
+ * image. Row r starts at word r * getWordsPerRow(), and pixel x of a row is bit x % 64 of word x / 64, counting
+ * from the least significant bit. Bits past the end of a row are always 0, so counts and set operations can work
+ * a word at a time.
+ * 
+ * @author robert
+ */
+
+public class EdgeMask {
+    private final int width;        //Number of pixels in each row
+    private final int height;       //Number of rows
+    private final int words;        //Longs per row
+    private final long[] bits;      //Packed pixels, words * height longs
+    
+    /**
+     * Create an empty mask.
+     * 
+     * @param width     int, the number of pixels in each row
+     * @param height    int, the number of rows
+     */
+    public EdgeMask(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("ERROR: Invalid mask dimensions!");
+        }
+        
+        this.width = width;
+        this.height = height;
+        words = (width + 63) >>> 6;
+        bits = new long[words * height];
+    }
+    
+    /**
+     * @return width    int, the number of pixels in each row
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return height   int, the number of rows
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return words    int, the number of longs holding each row
+     */
+    public int getWordsPerRow() {
+        return words;
+    }
+    
+    /**
+     * @return bits     long[], the backing array of this mask
+     */
+    public long[] getWords() {
+        return bits;
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @return edge boolean, true if the pixel is an edge
+     */
+    public boolean get(int x, int y) {
+        Check(x, y);
+        
+        return ((bits[y * words + (x >>> 6)] >>> x) & 1) != 0;
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @param edge  boolean, true to mark the pixel as an edge
+     */
+    public void set(int x, int y, boolean edge) {
+        Check(x, y);
+        
+        if (edge) {
+            bits[y * words + (x >>> 6)] |= 1L << x;
+        } else {
+            bits[y * words + (x >>> 6)] &= ~(1L << x);
+        }
+    }
+    
+    /**
+     * Call this method to count the edge pixels, a word at a time.
+     * 
+     * @return count    long, the number of edge pixels in the mask
+     */
+    public long Count() {
+        long count = 0;
+        
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Send this method a pixel to find the next edge pixel in its row, which makes walking the edges of a row
+     * skip whole words of background:
+     * <pre>
+     * for (int x = mask.NextEdge(0, y); x >= 0; x = mask.NextEdge(x + 1, y)) { ... }
+     * </pre>
+     * 
+     * @param x     int, column to start looking from; may be past the end of the row
+     * @param y     int, row to look in
+     * @return next int, column of the first edge pixel at or after x, or -1 if there is none
+     */
+    public int NextEdge(int x, int y) {
+        if (y < 0 || y >= height || x < 0) {
+            throw new IndexOutOfBoundsException("ERROR: Pixel is outside the mask!");
+        }
+        
+        int row = y * words;
+        int w = x >>> 6;
+        
+        if (w < words) {
+            long word = bits[row + w] & (-1L << x);
+            
+            while (word == 0 && ++w < words) {
+                word = bits[row + w];
+            }
+            
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Call this method to keep only the edges that are also edges in other.
+     * 
+     * @param other     EdgeMask, a mask of the same size
+     */
+    public void And(EdgeMask other) {
+        Match(other);
+        
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= other.bits[i];
+        }
+    }
+    
+    /**
+     * Call this method to add the edges of other.
+     * 
+     * @param other     EdgeMask, a mask of the same size
+     */
+    public void Or(EdgeMask other) {
+        Match(other);
+        
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+    }
+    
+    /**
+     * Call this method to remove the edges of other, leaving the edges only this mask has, such as the ones that
+     * appeared since the previous frame.
+     * 
+     * @param other     EdgeMask, a mask of the same size
+     */
+    public void AndNot(EdgeMask other) {
+        Match(other);
+        
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= ~other.bits[i];
+        }
+    }
+    
+    /**
+     * Call this method to draw the mask as an image with edges at 255 and background at 0.
+     * 
+     * @param type  int, BufferedImage.TYPE_INT_RGB, TYPE_BYTE_GRAY or TYPE_BYTE_BINARY
+     * @return img  BufferedImage, a new image of the mask, or null if the mask is empty
+     */
+    public BufferedImage ToImage(int type) {
+        BytePlane plane = new BytePlane(width, height);
+        
+        UnpackRows(plane, 0, height);
+        
+        return ImageUtils.GSImg(plane, type);
+    }
+    
+    /*
+     * Packs rows [rowStart, rowEnd) of a binary plane of the same size, where any nonzero pixel is an edge.
+     */
+    void PackRows(BytePlane bin, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            int rowBin = r * bin.stride;
+            int row = r * words;
+            
+            for (int w = 0; w < words; w++) {
+                int start = w << 6;
+                int end = Math.min(start + 64, width);
+                long word = 0;
+                
+                for (int c = start; c < end; c++) {
+                    word |= (long) ((bin.data[rowBin + c] | -bin.data[rowBin + c]) >>> 31) << c;
+                }
+                
+                bits[row + w] = word;
+            }
+        }
+    }
+    
+    /*
+     * Writes rows [rowStart, rowEnd) into a plane of the same size as 0 or 255.
+     */
+    private void UnpackRows(BytePlane plane, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            int rowOut = r * plane.stride;
+            int row = r * words;
+            
+            for (int c = 0; c < width; c++) {
+                plane.data[rowOut + c] = (byte) (((bits[row + (c >>> 6)] >>> c) & 1) * 255);
+            }
+        }
+    }
+    
+    /*
+     * Throws if the pixel is outside the mask, since a column past the end of a row would still land in the array.
+     */
+    private void Check(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("ERROR: Pixel is outside the mask!");
+        }
+    }
+    
+    /*
+     * Throws unless other has the same dimensions.
+     */
+    private void Match(EdgeMask other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("ERROR: Edge masks are not the same size!");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class is a flat, row-major image backed by a float[]. Used for gradient magnitudes.
+ * 
+ * @author robert
+ */
+
+public class FloatPlane extends Plane {
+    float[] data;     //Pixel values, row r starts at r * stride
+    
+    /**
+     * Create an empty plane whose stride equals its width.
+     * 
+     * @param width     int, the number of pixels in each row
+     * @param height    int, the number of rows
+     */
+    public FloatPlane(int width, int height) {
+        this(width, height, width);
+    }
+    
+    /**
+     * Create an empty plane with the given row stride.
+     * 
+     * @param width     int, the number of pixels in each row
+     * @param height    int, the number of rows
+     * @param stride    int, the distance between the starts of two rows, at least width
+     */
+    public FloatPlane(int width, int height, int stride) {
+        super(width, height, stride);
+        data = new float[height * stride];
+    }
+    
+    /**
+     * @return data     float[], the backing array of this plane
+     */
+    public float[] getData() {
+        return data;
+    }
+    
+    @Override
+    int Capacity() {
+        return data.length;
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @return v    float, value of the pixel
+     */
+    public float get(int x, int y) {
+        return data[y * stride + x];
+    }
+    
+    /**
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @param v     float, new value of the pixel
+     */
+    public void set(int x, int y, float v) {
+        data[y * stride + x] = v;
+    }
+    
+    /**
+     * Send this method an float[][] array to get a plane holding a copy of its values.
+     * 
+     * @param raw       float[][], a rectangular array of pixel values
+     * @return plane    FloatPlane, a flat copy of the array
+     */
+    public static FloatPlane FromArray(float[][] raw) {
+        int height = raw.length;
+        int width = (height > 0) ? raw[0].length : 0;
+        FloatPlane plane = new FloatPlane(width, height);
+        
+        for (int r = 0; r < height; r++) {
+            System.arraycopy(raw[r], 0, plane.data, r * width, width);
+        }
+        
+        return plane;
+    }
+    
+    /**
+     * Call this method to copy the plane into a float[][] array.
+     * 
+     * @return out  float[][], a jagged copy of the plane's values
+     */
+    public float[][] ToArray() {
+        float[][] out = new float[height][width];
+        
+        for (int r = 0; r < height; r++) {
+            System.arraycopy(data, r * stride, out[r], 0, width);
+        }
+        
+        return out;
+    }
+}
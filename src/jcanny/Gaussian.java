@@ -17,6 +17,10 @@
  */
 package jcanny;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class contains methods for masking image arrays with Gaussian masks.
  * Instead of convolving each pixel pixel with a 2D Gaussian kernel, it convolves
@@ -34,6 +38,18 @@ TODO
 public class Gaussian {
     //This seems like a very costly operation, only doing this once.
     private static final double SQRT2PI = Math.sqrt(2 * Math.PI);
+    //Fixed-point kernel weights sum to 1 << FIXED_SHIFT. 8-bit pixels times the sum of weights stay well inside an int.
+    static final int FIXED_SHIFT = 14;
+    //Bits below the gray level kept between the two fixed-point passes; 255 << 6 times 1 << 14 still fits an int
+    static final int FIXED_FRACTION = 6;
+    //Default fraction of the Gaussian's weight that may be cut off by truncating it at the radius
+    public static final double DEFAULT_TOLERANCE = 1e-3;
+    
+    //Most kernels each cache keeps, so that sweeping sigma over many values cannot grow them without limit
+    private static final int CACHED_KERNELS = 64;
+    //Normalized kernels shared by every caller, keyed by radius and sigma
+    private static final Map<KernelKey, double[]> KERNELS = Collections.synchronizedMap(new KernelCache<>());
+    private static final Map<KernelKey, int[]> FIXED_KERNELS = Collections.synchronizedMap(new KernelCache<>());
     
     /**
      * Send this method an int[][][] RGB array, an int radius, and a double intensity to blur the
@@ -47,55 +63,35 @@ public class Gaussian {
     public static int[][][] BlurRGB(int[][][] raw, int rad, double intens) {
         int height = raw.length;
         int width = raw[0].length;
-        double intensSquared2 = 2 * intens * intens;
-        //This also seems very costly, do it as little as possible
-        double invIntensSqrPi = 1 / (SQRT2PI * intens);
-        double norm = 0.;
-        double[] mask = new double[2 * rad + 1];
+        double[] mask = NormalizedKernel(rad, intens);
+        double[][][] tmp = new double[height][width - 2 * rad][3];
         int[][][] outRGB = new int[height - 2 * rad][width - 2 * rad][3];
         
-        //Create Gaussian kernel
-        for (int x = -rad; x < rad + 1; x++) {
-            double exp = Math.exp(-((x * x) / intensSquared2));
-            
-            mask[x + rad] = invIntensSqrPi * exp;
-            norm += mask[x + rad];
-        }
-        
         //Convolve image with kernel horizontally
-        for (int r = rad; r < height - rad; r++) {
+        for (int r = 0; r < height; r++) {
             for (int c = rad; c < width - rad; c++) {
-                double[] sum = new double[3];
-                
                 for (int mr = -rad; mr < rad + 1; mr++) {
                     for (int chan = 0; chan < 3; chan++) {
-                        sum[chan] += (mask[mr + rad] * raw[r][c + mr][chan]);
+                        tmp[r][c - rad][chan] += (mask[mr + rad] * raw[r][c + mr][chan]);
                     }
                 }
-                
-                //Normalize channels after blur
-                for (int chan = 0; chan < 3; chan++) {
-                    sum[chan] /= norm;
-                    outRGB[r - rad][c - rad][chan] = (int) Math.round(sum[chan]);
-                }
             }
         }
         
-        //Convolve image with kernel vertically
+        //Convolve the horizontal result with kernel vertically
         for (int r = rad; r < height - rad; r++) {
-            for (int c = rad; c < width - rad; c++) {
+            for (int c = 0; c < width - 2 * rad; c++) {
                 double[] sum = new double[3];
                 
                 for (int mr = -rad; mr < rad + 1; mr++) {
                     for(int chan = 0; chan < 3; chan++) {
-                        sum[chan] += (mask[mr + rad] * raw[r + mr][c][chan]);
+                        sum[chan] += (mask[mr + rad] * tmp[r + mr][c][chan]);
                     }
                 }
                 
-                //Normalize channels after blur
+                //Kernel is normalized, so channels need no scaling after blur
                 for (int chan = 0; chan < 3; chan++) {
-                    sum[chan] /= norm;
-                    outRGB[r - rad][c - rad][chan] = (int) Math.round(sum[chan]);
+                    outRGB[r - rad][c][chan] = (int) Math.round(sum[chan]);
                 }
             }
         }
@@ -113,53 +109,504 @@ public class Gaussian {
      * @return outRGB   int[][], an array of grayscale values from blurring input image with Gaussian filter
      */
     public static int[][] BlurGS (int[][] raw, int rad, double intens) {
-        int height = raw.length;
-        int width = raw[0].length;
-        double norm = 0.;
+        return BlurGS(IntPlane.FromArray(raw), rad, intens).ToArray();
+    }
+    
+    /**
+     * Send this method a double sigma and a truncation tolerance to get the smallest kernel radius that keeps all but
+     * that fraction of the Gaussian's weight. A tolerance of DEFAULT_TOLERANCE gives a radius of about 3 sigma.
+     * 
+     * @param sigma     double, the standard deviation of the Gaussian
+     * @param tolerance double, the largest fraction of the kernel's total weight that may lie beyond the radius
+     * @return rad      int, the kernel radius, at least 1
+     */
+    public static int Radius(double sigma, double tolerance) {
+        if (sigma <= 0 || tolerance <= 0 || tolerance >= 1) {
+            throw new IllegalArgumentException("ERROR: Sigma must be positive and tolerance between 0 and 1!");
+        }
+        
+        int far = (int) Math.ceil(10 * sigma) + 1;
+        double[] weights = Kernel(far, sigma);
+        double total = 0.;
+        double tail = 0.;
+        int rad = far;
+        
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+        }
+        
+        //Shrink the radius while the weight outside it stays within tolerance
+        while (rad > 1) {
+            tail += weights[far - rad] + weights[far + rad];
+            
+            if (tail > tolerance * total) {
+                break;
+            }
+            
+            rad--;
+        }
+        
+        return rad;
+    }
+    
+    /**
+     * Send this method an int radius and a double intensity to get the 1D Gaussian kernel.
+     * The kernel is not normalized; see NormalizedKernel() for the one used by the blur.
+     * 
+     * @param rad       int, the radius of the Gaussian filter (filter width = 2 * r + 1)
+     * @param intens    double, the intensity of the Gaussian blur
+     * @return mask     double[], the 2 * rad + 1 kernel weights
+     */
+    public static double[] Kernel(int rad, double intens) {
         double intensSquared2 = 2 * intens * intens;
         //This also seems very costly, do it as little as possible
         double invIntensSqrPi = 1 / (SQRT2PI * intens);
         double[] mask = new double[2 * rad + 1];
-        int[][] outGS = new int[height - 2 * rad][width - 2 * rad];
         
-        //Create Gaussian kernel
         for (int x = -rad; x < rad + 1; x++) {
             double exp = Math.exp(-((x * x) / intensSquared2));
             
             mask[x + rad] = invIntensSqrPi * exp;
-            norm += mask[x + rad];
         }
         
-        //Convolve image with kernel horizontally
-        for (int r = rad; r < height - rad; r++) {
-            for (int c = rad; c < width - rad; c++) {
-                double sum = 0.;
+        return mask;
+    }
+    
+    /**
+     * Send this method an int radius and a double intensity to get the 1D Gaussian kernel, scaled so its weights
+     * sum to 1. Kernels come from a cache shared by all threads, which keeps the CACHED_KERNELS most recently used
+     * ones, so the returned array must not be modified.
+     * 
+     * @param rad       int, the radius of the Gaussian filter (filter width = 2 * r + 1)
+     * @param intens    double, the intensity of the Gaussian blur
+     * @return mask     double[], the 2 * rad + 1 normalized kernel weights
+     */
+    public static double[] NormalizedKernel(int rad, double intens) {
+        return KERNELS.computeIfAbsent(new KernelKey(rad, intens), key -> {
+            double[] mask = Kernel(rad, intens);
+            double norm = 0.;
+            
+            for (int i = 0; i < mask.length; i++) {
+                norm += mask[i];
+            }
+            
+            for (int i = 0; i < mask.length; i++) {
+                mask[i] /= norm;
+            }
+            
+            return mask;
+        });
+    }
+    
+    /**
+     * Send this method an int radius and a double intensity to get the cached fixed-point version of
+     * NormalizedKernel(). The returned array must not be modified.
+     * 
+     * @param rad       int, the radius of the Gaussian filter (filter width = 2 * r + 1)
+     * @param intens    double, the intensity of the Gaussian blur
+     * @return fixed    int[], the normalized integer kernel
+     */
+    public static int[] FixedKernel(int rad, double intens) {
+        return FIXED_KERNELS.computeIfAbsent(new KernelKey(rad, intens), key -> FixedKernel(NormalizedKernel(rad, intens)));
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale values, an int radius, and a double intensity to blur the
+     * image with a Gaussian filter of that radius and intensity.
+     * 
+     * @param raw       IntPlane, a plane of grayscale values to be blurred
+     * @param rad       int, the radius of the Gaussian filter (filter width = 2 * r + 1)
+     * @param intens    double, the intensity of the Gaussian blur
+     * @return outGS    IntPlane, a plane of grayscale values from blurring input image with Gaussian filter
+     */
+    public static IntPlane BlurGS(IntPlane raw, int rad, double intens) {
+        IntPlane outGS = new IntPlane(raw.width - 2 * rad, raw.height - 2 * rad);
+        FloatPlane tmp = new FloatPlane(outGS.width, raw.height);
+        
+        BlurGS(raw, NormalizedKernel(rad, intens), tmp, outGS);
+        
+        return outGS;
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale values, a Gaussian kernel from NormalizedKernel(), a plane to hold
+     * the horizontal pass, and a plane to receive the blurred image. Allocates nothing.
+     * 
+     * The blur is separable: the horizontal pass convolves each source row into tmp without rounding, and the
+     * vertical pass convolves tmp, so each pixel costs 2 * (2 * radius + 1) multiply-adds. Both passes walk rows
+     * left to right; the vertical one reads its 2 * radius + 1 rows side by side instead of down a column.
+     * 
+     * @param raw       IntPlane, a plane of grayscale values to be blurred
+     * @param mask      double[], the normalized Gaussian kernel; its radius is (mask.length - 1) / 2
+     * @param tmp       FloatPlane, scratch; must be 2 * radius narrower than raw and as tall
+     * @param outGS     IntPlane, receives the blurred image; must be 2 * radius narrower and shorter than raw
+     */
+    public static void BlurGS(IntPlane raw, double[] mask, FloatPlane tmp, IntPlane outGS) {
+        int rad = (mask.length - 1) / 2;
+        
+        if (outGS.width != raw.width - 2 * rad || outGS.height != raw.height - 2 * rad
+                || tmp.width != outGS.width || tmp.height != raw.height) {
+            throw new IllegalArgumentException("ERROR: Blur output does not match source plane!");
+        }
+        
+        HorizontalRows(raw, mask, tmp, 0, raw.height);
+        VerticalRows(tmp, mask, outGS, 0, outGS.height);
+    }
+    
+    /*
+     * Horizontal pass over source rows [rowStart, rowEnd), each into the same row of tmp.
+     */
+    static void HorizontalRows(IntPlane raw, double[] mask, FloatPlane tmp, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            HorizontalRow(raw.data, r * raw.stride, mask, tmp.data, r * tmp.stride, tmp.width);
+        }
+    }
+    
+    /*
+     * Vertical pass for output rows [rowStart, rowEnd), reading tmp rows rowStart through rowEnd + 2 * radius - 1.
+     */
+    static void VerticalRows(FloatPlane tmp, double[] mask, IntPlane outGS, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            VerticalRow(tmp.data, r * tmp.stride, tmp.stride, mask, outGS.data, r * outGS.stride, outGS.width);
+        }
+    }
+    
+    /*
+     * Convolves one source row with the kernel, leaving out the radius on each side, without rounding.
+     */
+    static void HorizontalRow(int[] in, int rowIn, double[] mask, float[] out, int rowOut, int width) {
+        int taps = mask.length;
+        int c = Simd.ENABLED ? VectorKernels.HorizontalRow(in, rowIn, mask, out, rowOut, width) : 0;
+        
+        for (; c < width; c++) {
+            double sum = 0.;
+            
+            for (int mr = 0; mr < taps; mr++) {
+                sum += (mask[mr] * in[rowIn + c + mr]);
+            }
+            
+            out[rowOut + c] = (float) sum;
+        }
+    }
+    
+    /*
+     * Convolves 2 * radius + 1 horizontally blurred rows, starting at index top and inStride apart, into one output
+     * row. A streaming caller only needs to keep that many rows, contiguously, to call it.
+     */
+    static void VerticalRow(float[] in, int top, int inStride, double[] mask, int[] out, int rowOut, int width) {
+        int taps = mask.length;
+        int c = Simd.ENABLED ? VectorKernels.VerticalRow(in, top, inStride, mask, out, rowOut, width) : 0;
+        
+        for (; c < width; c++) {
+            double sum = 0.;
+            
+            for (int mr = 0; mr < taps; mr++) {
+                sum += (mask[mr] * in[top + mr * inStride + c]);
+            }
+            
+            out[rowOut + c] = (int) Math.round(sum);
+        }
+    }
+    
+    /**
+     * Send this method a kernel from Kernel() or NormalizedKernel() to get the same kernel as integer weights
+     * summing to exactly 1 << FIXED_SHIFT. Rounding error is pushed onto the centre weight.
+     * 
+     * @param mask      double[], the Gaussian kernel
+     * @return fixed    int[], the normalized integer kernel
+     */
+    public static int[] FixedKernel(double[] mask) {
+        int rad = (mask.length - 1) / 2;
+        int one = 1 << FIXED_SHIFT;
+        int total = 0;
+        double norm = 0.;
+        int[] fixed = new int[mask.length];
+        
+        for (int i = 0; i < mask.length; i++) {
+            norm += mask[i];
+        }
+        
+        for (int i = 0; i < mask.length; i++) {
+            fixed[i] = (int) Math.round(mask[i] / norm * one);
+            total += fixed[i];
+        }
+        
+        fixed[rad] += one - total;
+        
+        return fixed;
+    }
+    
+    /**
+     * Send this method an IntPlane of 8-bit grayscale values, an int radius, and a double intensity to blur the
+     * image with a fixed-point Gaussian filter. The output is within 1 gray level of BlurGS with the same arguments.
+     * 
+     * @param raw       IntPlane, a plane of grayscale values 0-255 to be blurred
+     * @param rad       int, the radius of the Gaussian filter (filter width = 2 * r + 1)
+     * @param intens    double, the intensity of the Gaussian blur
+     * @return outGS    IntPlane, a plane of grayscale values from blurring input image with Gaussian filter
+     */
+    public static IntPlane BlurFixed(IntPlane raw, int rad, double intens) {
+        IntPlane outGS = new IntPlane(raw.width - 2 * rad, raw.height - 2 * rad);
+        IntPlane tmp = new IntPlane(outGS.width, raw.height);
+        int[] fixed = FixedKernel(rad, intens);
+        
+        FixedHorizontalRows(raw, fixed, tmp, 0, raw.height);
+        FixedVerticalRows(tmp, fixed, outGS, 0, outGS.height);
+        
+        return outGS;
+    }
+    
+    /*
+     * Fixed-point version of HorizontalRows, taking a kernel from FixedKernel().
+     */
+    static void FixedHorizontalRows(IntPlane raw, int[] fixed, IntPlane tmp, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            FixedHorizontalRow(raw.data, r * raw.stride, fixed, tmp.data, r * tmp.stride, tmp.width);
+        }
+    }
+    
+    /*
+     * Fixed-point version of VerticalRows.
+     */
+    static void FixedVerticalRows(IntPlane tmp, int[] fixed, IntPlane outGS, int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            FixedVerticalRow(tmp.data, r * tmp.stride, tmp.stride, fixed, outGS.data, r * outGS.stride, outGS.width);
+        }
+    }
+    
+    /*
+     * Fixed-point version of HorizontalRow. The row is accumulated one kernel tap at a time, so the inner loop is a
+     * plain int multiply-add over contiguous memory. FIXED_FRACTION bits below the gray level are kept for the
+     * vertical pass, which keeps its sums inside an int.
+     */
+    static void FixedHorizontalRow(int[] in, int rowIn, int[] fixed, int[] out, int rowOut, int width) {
+        int shift = FIXED_SHIFT - FIXED_FRACTION;
+        
+        for (int c = 0; c < width; c++) {
+            out[rowOut + c] = 1 << (shift - 1);
+        }
+        
+        for (int mr = 0; mr < fixed.length; mr++) {
+            int k = fixed[mr];
+            int tap = rowIn + mr;
+            
+            for (int c = 0; c < width; c++) {
+                out[rowOut + c] += k * in[tap + c];
+            }
+        }
+        
+        for (int c = 0; c < width; c++) {
+            out[rowOut + c] >>= shift;
+        }
+    }
+    
+    /*
+     * Fixed-point version of VerticalRow, accumulating whole rows of the horizontal result one tap at a time.
+     */
+    static void FixedVerticalRow(int[] in, int top, int inStride, int[] fixed, int[] out, int rowOut, int width) {
+        int shift = FIXED_SHIFT + FIXED_FRACTION;
+        
+        for (int c = 0; c < width; c++) {
+            out[rowOut + c] = 1 << (shift - 1);
+        }
+        
+        for (int mr = 0; mr < fixed.length; mr++) {
+            int k = fixed[mr];
+            int tap = top + mr * inStride;
+            
+            for (int c = 0; c < width; c++) {
+                out[rowOut + c] += k * in[tap + c];
+            }
+        }
+        
+        for (int c = 0; c < width; c++) {
+            out[rowOut + c] >>= shift;
+        }
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale values, an int radius, and a double sigma to blur the image with
+     * the Young - van Vliet recursive Gaussian filter. Its cost per pixel does not depend on sigma. The output is
+     * cropped by the radius on every side, like BlurGS, so both blurs can be swapped freely.
+     * 
+     * @param raw       IntPlane, a plane of grayscale values to be blurred
+     * @param rad       int, the border to crop from each side of the output
+     * @param sigma     double, the standard deviation of the Gaussian, at least 0.5
+     * @return outGS    IntPlane, a plane of grayscale values from blurring input image with Gaussian filter
+     */
+    public static IntPlane BlurIIR(IntPlane raw, int rad, double sigma) {
+        IntPlane outGS = new IntPlane(raw.width - 2 * rad, raw.height - 2 * rad);
+        FloatPlane tmp = new FloatPlane(raw.width, raw.height);
+        double[] coeffs = IIRCoefficients(sigma);
+        
+        IIRRows(raw, coeffs, tmp, 0, raw.height);
+        IIRColumns(tmp, coeffs, outGS, 0, raw.width);
+        
+        return outGS;
+    }
+    
+    /**
+     * Send this method a double sigma to get the recursive filter's coefficients, from I. T. Young and
+     * L. J. van Vliet, "Recursive implementation of the Gaussian filter", Signal Processing 44 (1995).
+     * 
+     * @param sigma     double, the standard deviation of the Gaussian, at least 0.5
+     * @return coeffs   double[], the input gain B followed by the feedback weights b1 / b0, b2 / b0 and b3 / b0
+     */
+    public static double[] IIRCoefficients(double sigma) {
+        double q;
+        
+        if (sigma < 0.5) {
+            throw new IllegalArgumentException("ERROR: Recursive Gaussian needs sigma of at least 0.5!");
+        } else if (sigma >= 2.5) {
+            q = 0.98711 * sigma - 0.96330;
+        } else {
+            q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        }
+        
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3);
+        double b3 = 0.422205 * q3;
+        
+        return new double[] { 1 - (b1 + b2 + b3) / b0, b1 / b0, b2 / b0, b3 / b0 };
+    }
+    
+    /*
+     * Runs the recursive filter forward then backward along rows [rowStart, rowEnd) of raw, writing tmp. Pixels
+     * beyond either end of a row are taken to equal the end pixel, so a flat row stays flat.
+     */
+    static void IIRRows(IntPlane raw, double[] coeffs, FloatPlane tmp, int rowStart, int rowEnd) {
+        int width = raw.width;
+        float gain = (float) coeffs[0];
+        float a1 = (float) coeffs[1];
+        float a2 = (float) coeffs[2];
+        float a3 = (float) coeffs[3];
+        float[] t = tmp.data;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int rowIn = r * raw.stride;
+            int row = r * tmp.stride;
+            float w1 = raw.data[rowIn];
+            float w2 = w1;
+            float w3 = w1;
+            
+            //Causal pass, left to right
+            for (int c = 0; c < width; c++) {
+                float w = gain * raw.data[rowIn + c] + a1 * w1 + a2 * w2 + a3 * w3;
                 
-                for (int mr = -rad; mr < rad + 1; mr++) {
-                    sum += (mask[mr + rad] * raw[r][c + mr]);
-                }
+                t[row + c] = w;
+                w3 = w2;
+                w2 = w1;
+                w1 = w;
+            }
+            
+            w2 = w1;
+            w3 = w1;
+            
+            //Anti-causal pass, right to left
+            for (int c = width - 1; c >= 0; c--) {
+                float y = gain * t[row + c] + a1 * w1 + a2 * w2 + a3 * w3;
                 
-                //Normalize channel after blur
-                sum /= norm;
-                outGS[r - rad][c - rad] = (int) Math.round(sum);
+                t[row + c] = y;
+                w3 = w2;
+                w2 = w1;
+                w1 = y;
             }
         }
+    }
+    
+    /*
+     * Runs the recursive filter down then up columns [colStart, colEnd) of tmp in place, then rounds the result into
+     * outGS, dropping the border that outGS is smaller by. Whole row segments are filtered at a time, so memory is
+     * walked along rows even though the filter runs along columns.
+     */
+    static void IIRColumns(FloatPlane tmp, double[] coeffs, IntPlane outGS, int colStart, int colEnd) {
+        int height = tmp.height;
+        int stride = tmp.stride;
+        int rad = (tmp.width - outGS.width) / 2;
+        float gain = (float) coeffs[0];
+        float a1 = (float) coeffs[1];
+        float a2 = (float) coeffs[2];
+        float a3 = (float) coeffs[3];
+        float[] t = tmp.data;
         
-        //Convolve image with kernel vertically
-        for (int r = rad; r < height - rad; r++) {
-            for (int c = rad; c < width - rad; c++) {
-                double sum = 0.;
-                
-                for(int mr = -rad; mr < rad + 1; mr++) {
-                    sum += (mask[mr + rad] * raw[r + mr][c]);
-                }
+        //Causal pass, top to bottom; rows above the top equal the top row, whose output is then the row itself
+        for (int r = 1; r < height; r++) {
+            int row = r * stride;
+            int row1 = row - stride;
+            int row2 = Math.max(r - 2, 0) * stride;
+            int row3 = Math.max(r - 3, 0) * stride;
+            
+            for (int c = colStart; c < colEnd; c++) {
+                t[row + c] = gain * t[row + c] + a1 * t[row1 + c] + a2 * t[row2 + c] + a3 * t[row3 + c];
+            }
+        }
+        
+        //Anti-causal pass, bottom to top
+        for (int r = height - 2; r >= 0; r--) {
+            int row = r * stride;
+            int row1 = row + stride;
+            int row2 = Math.min(r + 2, height - 1) * stride;
+            int row3 = Math.min(r + 3, height - 1) * stride;
+            
+            for (int c = colStart; c < colEnd; c++) {
+                t[row + c] = gain * t[row + c] + a1 * t[row1 + c] + a2 * t[row2 + c] + a3 * t[row3 + c];
+            }
+        }
+        
+        int cStart = Math.max(colStart, rad);
+        int cEnd = Math.min(colEnd, rad + outGS.width);
+        
+        for (int r = rad; r < rad + outGS.height; r++) {
+            int row = r * stride;
+            int rowOut = (r - rad) * outGS.stride - rad;
+            
+            for (int c = cStart; c < cEnd; c++) {
+                int v = Math.round(t[row + c]);
                 
-                //Normalize channel after blur
-                sum /= norm;
-                outGS[r - rad][c - rad] = (int) Math.round(sum);
+                outGS.data[rowOut + c] = (v < 0) ? 0 : (v > 255) ? 255 : v;
             }
         }
+    }
+    
+    /*
+     * A map of kernels that drops the least recently used one once it holds more than CACHED_KERNELS.
+     */
+    private static final class KernelCache<V> extends LinkedHashMap<KernelKey, V> {
+        private static final long serialVersionUID = 1L;
         
-        return outGS;
+        KernelCache() {
+            super(16, 0.75f, true);
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<KernelKey, V> eldest) {
+            return size() > CACHED_KERNELS;
+        }
+    }
+    
+    /*
+     * Cache key for a kernel of a given radius and intensity.
+     */
+    private static final class KernelKey {
+        private final int rad;
+        private final long intens;
+        
+        KernelKey(int rad, double intens) {
+            this.rad = rad;
+            this.intens = Double.doubleToLongBits(intens);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof KernelKey && ((KernelKey) o).rad == rad && ((KernelKey) o).intens == intens;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * rad + Long.hashCode(intens);
+        }
     }
 }
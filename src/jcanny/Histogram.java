@@ -0,0 +1,221 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class holds the fixed-bin histogram of gradient magnitudes used by the percentile and Otsu thresholds.
+ * Bin b counts the magnitudes m with b <= m < b + 1; the last bin also takes everything above it. Sobel
+ * magnitudes of 8-bit images stay below 1443, so no real magnitude is clamped. Histograms are plain int counts,
+ * so partial histograms can be added in any order and still give the same thresholds.
+ * 
+ * @author robert
+ */
+
+final class Histogram {
+    static final int BINS = 2048;
+    
+    /*
+     * A squared magnitude s is binned without a square root: its float bits, shifted right by SQUARE_SHIFT, pick
+     * a cell of the exponent and the top 10 mantissa bits. The square roots across a cell below BINS^2 differ by
+     * less than 1, so the cell's lowest bin is right or one short, and a single comparison with the squared bin
+     * edge (b + 1)^2 settles it.
+     */
+    private static final int SQUARE_SHIFT = 13;
+    private static final int FIRST_CELL = Float.floatToRawIntBits(1) >>> SQUARE_SHIFT;
+    private static final float[] SQUARE_EDGES = new float[BINS + 1];     //b^2 for each bin b
+    private static final char[] CELL_BINS;      //Bin of the lowest squared magnitude in each cell
+    
+    static {
+        int cells = (Float.floatToRawIntBits((float) BINS * BINS) >>> SQUARE_SHIFT) - FIRST_CELL;
+        CELL_BINS = new char[cells];
+        
+        for (int b = 0; b <= BINS; b++) {
+            SQUARE_EDGES[b] = (float) b * b;
+        }
+        
+        for (int i = 0; i < cells; i++) {
+            CELL_BINS[i] = (char) Math.sqrt(Float.intBitsToFloat((FIRST_CELL + i) << SQUARE_SHIFT));
+        }
+    }
+    
+    private Histogram() {
+    }
+    
+    /*
+     * Counts the width magnitudes starting at m[pos] into hist[base, base + BINS).
+     */
+    static void Add(float[] m, int pos, int width, int[] hist, int base) {
+        for (int c = pos; c < pos + width; c++) {
+            hist[base + Math.min((int) m[c], BINS - 1)]++;
+        }
+    }
+    
+    /*
+     * Counts the width squared magnitudes starting at m[pos] into hist[base, base + BINS), each in the bin of its
+     * square root, so the histogram is the one Add() would give for the magnitudes themselves.
+     */
+    static void AddSquared(float[] m, int pos, int width, int[] hist, int base) {
+        for (int c = pos; c < pos + width; c++) {
+            hist[base + SquaredBin(m[c])]++;
+        }
+    }
+    
+    /*
+     * Returns the bin of the squared magnitude s.
+     */
+    static int SquaredBin(float s) {
+        if (s < 1) {
+            return 0;
+        } else if (s >= SQUARE_EDGES[BINS - 1]) {
+            return BINS - 1;
+        }
+        
+        int bin = CELL_BINS[(Float.floatToRawIntBits(s) >>> SQUARE_SHIFT) - FIRST_CELL];
+        
+        return (SQUARE_EDGES[bin + 1] <= s) ? bin + 1 : bin;
+    }
+    
+    /*
+     * Adds histograms 1 through parts - 1 of hist into histogram 0.
+     */
+    static void Merge(int[] hist, int parts) {
+        for (int p = 1; p < parts; p++) {
+            for (int b = 0; b < BINS; b++) {
+                hist[b] += hist[p * BINS + b];
+            }
+        }
+    }
+    
+    /*
+     * Returns the smallest whole magnitude t such that at least the given fraction of the pixels lie below t.
+     */
+    static double Percentile(int[] hist, double fraction) {
+        long total = 0;
+        long below = 0;
+        
+        for (int b = 0; b < BINS; b++) {
+            total += hist[b];
+        }
+        
+        for (int b = 0; b < BINS; b++) {
+            if (below >= fraction * total) {
+                return b;
+            }
+            
+            below += hist[b];
+        }
+        
+        return BINS;
+    }
+    
+    /*
+     * Half-width of a 95% confidence interval for Percentile(hist, fraction) when hist counts a sample of count
+     * parts (rows or tile strips) drawn at random from the image, and parts[p] holds how many of part p's
+     * parts[step + p] pixels lie below that percentile. The parts' pixels are too alike to count as independent, so
+     * by Woodruff's method the spread of the parts' fractions below it bounds how far the image's fraction may be
+     * from the sample's, and the percentiles that far either side give the interval. Fewer than two parts leave the
+     * spread unknown, and give NaN.
+     */
+    static double PercentileError(int[] hist, double fraction, double[] parts, int count, int step) {
+        double below = 0;
+        double total = 0;
+        double spread = 0;
+        
+        if (count < 2) {
+            return Double.NaN;
+        }
+        
+        for (int p = 0; p < count; p++) {
+            below += parts[p];
+            total += parts[step + p];
+        }
+        
+        if (total == 0) {
+            return 0;
+        }
+        
+        for (int p = 0; p < count; p++) {
+            double offset = parts[p] - parts[step + p] * below / total;
+            
+            spread += offset * offset;
+        }
+        
+        double eps = 1.96 * Math.sqrt(spread * count / (count - 1)) / total;
+        double t = Percentile(hist, fraction);
+        double low = Percentile(hist, Math.max(fraction - eps, 0));
+        double high = Percentile(hist, Math.min(fraction + eps, 1));
+        
+        return Math.max(t - low, high - t);
+    }
+    
+    /*
+     * Returns how many of the width magnitudes starting at m[pos], squared ones if squared is set, fall in bins
+     * below t.
+     */
+    static int Below(float[] m, int pos, int width, boolean squared, double t) {
+        int below = 0;
+        
+        for (int c = pos; c < pos + width; c++) {
+            int bin = squared ? SquaredBin(m[c]) : Math.min((int) m[c], BINS - 1);
+            
+            if (bin < t) {
+                below++;
+            }
+        }
+        
+        return below;
+    }
+    
+    /*
+     * Returns the whole magnitude t that maximizes the between-class variance of the pixels below t and the
+     * pixels at or above it (Otsu's method).
+     */
+    static double Otsu(int[] hist) {
+        double total = 0;
+        double sumAll = 0;
+        double below = 0;
+        double sumBelow = 0;
+        double best = -1;
+        int threshold = 0;
+        
+        for (int b = 0; b < BINS; b++) {
+            total += hist[b];
+            sumAll += (double) b * hist[b];
+        }
+        
+        for (int b = 0; b < BINS - 1; b++) {
+            below += hist[b];
+            sumBelow += (double) b * hist[b];
+            double above = total - below;
+            
+            if (below == 0 || above == 0) {
+                continue;
+            }
+            
+            double diff = sumBelow / below - (sumAll - sumBelow) / above;
+            double between = below * above * diff * diff;
+            
+            if (between > best) {
+                best = between;
+                threshold = b + 1;
+            }
+        }
+        
+        return threshold;
+    }
+}
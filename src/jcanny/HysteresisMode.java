@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This enum selects how the hysteresis stage of a CannyDetector decides which weak pixels are edges.
+ * 
+ * @author robert
+ */
+
+public enum HysteresisMode {
+    /**
+     * Keeps every weak pixel connected to a strong pixel through a chain of weak pixels. A flood fill from the
+     * strong pixels visits each pixel at most once. Given a pool, a detector finds the same pixels with a
+     * parallel union-find over bands of rows instead.
+     */
+    FLOOD,
+    
+    /**
+     * Keeps the same pixels as FLOOD, found by dilating packed masks of 64 pixels per long until nothing changes.
+     * Much cheaper than FLOOD on sparse edge maps, and the masks take 2 bits per pixel.
+     */
+    PACKED,
+    
+    /**
+     * Keeps a weak pixel only if one of its 8 neighbours is strong. Weak chains longer than one pixel are dropped.
+     * This is the rule CannyStream uses, and CannyTiler by default, since it needs only the rows next to each pixel.
+     */
+    NEIGHBOUR
+}
@@ -18,6 +18,12 @@
 package jcanny;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 /**
  * This class contains utility methods for transforming image data.
@@ -83,24 +89,175 @@ public class ImageUtils {
      * @return gs   int[][] array of grayscale pixel values from image.
      */
     public static int[][] GSArray(BufferedImage img) {
-        int[][] gs = null;
+        IntPlane gs = GSPlane(img);
+        
+        return (gs == null) ? null : gs.ToArray();
+    }
+    
+    /**
+     * Send this method a BufferedImage to get a flat grayscale plane (int, value 0-255).
+     * 
+     * @param img   BufferedImage, the input image from which to extract grayscale
+     * @return gs   IntPlane of grayscale pixel values from image.
+     */
+    public static IntPlane GSPlane(BufferedImage img) {
+        IntPlane gs = null;
         int height = img.getHeight();
         int width = img.getWidth();
         
         if (height > 0 && width > 0) {
-            gs = new int[height][width];
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int bits = img.getRGB(j, i);
-                    //Not sure if precision is needed, but adding for now
-                    long avg = Math.round((((bits >> 16) & 0xff) + ((bits >> 8) & 0xff) + (bits & 0xff)) / 3.0);
-                    gs[i][j] = (int) avg;
+            gs = new IntPlane(width, height);
+            GSPlane(img, gs);
+        }
+        
+        return gs;
+    }
+    
+    /**
+     * Send this method a BufferedImage and a plane of the same size to fill the plane with the image's
+     * grayscale values (int, value 0-255). TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR and
+     * TYPE_BYTE_GRAY images are read straight from their rasters; other types go through one bulk getRGB call
+     * into the plane's own array. Either way no per-pixel objects are created.
+     * 
+     * TYPE_BYTE_GRAY pixels are copied as stored. getRGB would convert them from the image's linear gray
+     * color space to sRGB, which brightens them.
+     * 
+     * @param img   BufferedImage, the input image from which to extract grayscale
+     * @param gs    IntPlane, receives the grayscale pixel values; must be the same size as img
+     */
+    public static void GSPlane(BufferedImage img, IntPlane gs) {
+        int height = img.getHeight();
+        int width = img.getWidth();
+        
+        if (gs.width != width || gs.height != height) {
+            throw new IllegalArgumentException("ERROR: Grayscale plane does not match image!");
+        }
+        
+        GSRows(img, gs, 0, height);
+    }
+    
+    /*
+     * Fills only rows [rowStart, rowEnd) of the grayscale plane.
+     */
+    static void GSRows(BufferedImage img, IntPlane gs, int rowStart, int rowEnd) {
+        GSRows(img, rowStart, rowEnd, gs.data, rowStart * gs.stride, gs.stride);
+    }
+    
+    /*
+     * Writes the grayscale values of image rows [rowStart, rowEnd) to data, the first row starting at pos and each
+     * following row stride after the one before it.
+     */
+    static void GSRows(BufferedImage img, int rowStart, int rowEnd, int[] data, int pos, int stride) {
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_RGB :
+            case BufferedImage.TYPE_INT_ARGB :
+                PackedRows(img, rowStart, rowEnd, data, pos, stride);
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR :
+            case BufferedImage.TYPE_4BYTE_ABGR :
+                InterleavedRows(img, rowStart, rowEnd, data, pos, stride);
+                break;
+            case BufferedImage.TYPE_BYTE_GRAY :
+                GrayRows(img, rowStart, rowEnd, data, pos, stride);
+                break;
+            default :
+                img.getRGB(0, rowStart, img.getWidth(), rowEnd - rowStart, data, pos, stride);
+                
+                for (int i = 0; i < rowEnd - rowStart; i++) {
+                    GSRow(data, pos + i * stride, img.getWidth());
                 }
+        }
+    }
+    
+    /*
+     * Reads rows of a TYPE_INT_RGB or TYPE_INT_ARGB image, whose pixels are packed the way getRGB returns them.
+     */
+    private static void PackedRows(BufferedImage img, int rowStart, int rowEnd, int[] data, int pos, int stride) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan - raster.getSampleModelTranslateX();
+        
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowIn = offset + i * scan;
+            int rowOut = pos + (i - rowStart) * stride;
+            
+            for (int j = 0; j < width; j++) {
+                int bits = pixels[rowIn + j];
+                data[rowOut + j] = Gray((bits >> 16) & 0xff, (bits >> 8) & 0xff, bits & 0xff);
             }
         }
+    }
+    
+    /*
+     * Reads rows of a TYPE_3BYTE_BGR or TYPE_4BYTE_ABGR image, one byte per sample. The raster's bands are red,
+     * green and blue (then alpha), so the sample model gives the position of each within a pixel.
+     */
+    private static void InterleavedRows(BufferedImage img, int rowStart, int rowEnd, int[] data, int pos, int stride) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int step = model.getPixelStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan - raster.getSampleModelTranslateX() * step;
+        int red = model.getOffset(0, 0, 0);
+        int green = model.getOffset(0, 0, 1);
+        int blue = model.getOffset(0, 0, 2);
         
-        return gs;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowIn = offset + i * scan;
+            int rowOut = pos + (i - rowStart) * stride;
+            
+            for (int j = 0; j < width; j++) {
+                int p = rowIn + j * step;
+                data[rowOut + j] = Gray(pixels[p + red] & 0xff, pixels[p + green] & 0xff, pixels[p + blue] & 0xff);
+            }
+        }
+    }
+    
+    /*
+     * Copies rows of a TYPE_BYTE_GRAY image.
+     */
+    private static void GrayRows(BufferedImage img, int rowStart, int rowEnd, int[] data, int pos, int stride) {
+        int width = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan - raster.getSampleModelTranslateX();
+        
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowIn = offset + i * scan;
+            int rowOut = pos + (i - rowStart) * stride;
+            
+            for (int j = 0; j < width; j++) {
+                data[rowOut + j] = pixels[rowIn + j] & 0xff;
+            }
+        }
+    }
+    
+    /*
+     * Replaces width packed RGB pixels starting at index pos with their grayscale values.
+     */
+    static void GSRow(int[] data, int pos, int width) {
+        for (int j = pos; j < pos + width; j++) {
+            int bits = data[j];
+            data[j] = Gray((bits >> 16) & 0xff, (bits >> 8) & 0xff, bits & 0xff);
+        }
+    }
+    
+    /*
+     * Returns Math.round((r + g + b) / 3.0) in integer math. 21846 / 65536 is close enough to 1/3 that the
+     * result is exact for every sum of three 8-bit channels.
+     */
+    private static int Gray(int r, int g, int b) {
+        return ((r + g + b + 1) * 21846) >>> 16;
     }
     
     /**
@@ -127,6 +284,161 @@ public class ImageUtils {
         return img;
     }
     
+    /**
+     * Send this method a plane of grayscale pixels (byte) to get a BufferedImage
+     * 
+     * @param raw   BytePlane representing grayscale pixels of image.
+     * @return img  BufferedImage built from grayscale plane 
+     */
+    public static BufferedImage GSImg(BytePlane raw) {
+        return GSImg(raw, BufferedImage.TYPE_INT_RGB);
+    }
+    
+    /**
+     * Send this method a plane of grayscale pixels (byte) and an image type to get a BufferedImage of that type.
+     * 
+     * @param raw   BytePlane representing grayscale pixels of image.
+     * @param type  int, BufferedImage.TYPE_INT_RGB, TYPE_BYTE_GRAY or TYPE_BYTE_BINARY
+     * @return img  BufferedImage built from grayscale plane 
+     */
+    public static BufferedImage GSImg(BytePlane raw, int type) {
+        BufferedImage img = null;
+        int height = raw.height;
+        int width = raw.width;
+        
+        if (!OutputType(type)) {
+            throw new IllegalArgumentException("ERROR: Unsupported output image type!");
+        }
+        
+        if (height > 0 && width > 0) {
+            img = new BufferedImage(width, height, type);
+            GSImg(raw, img);
+        }
+        
+        return img;
+    }
+    
+    /**
+     * Send this method a plane of grayscale pixels (byte) and a BufferedImage of the same size to write the plane
+     * into the image. Writes straight into the image's raster instead of calling setRGB. TYPE_INT_RGB images take
+     * 4 bytes per pixel, TYPE_BYTE_GRAY images 1, and TYPE_BYTE_BINARY images 1 bit, set for pixels of 128 or more.
+     * 
+     * @param raw   BytePlane representing grayscale pixels of image.
+     * @param img   BufferedImage, TYPE_INT_RGB, TYPE_BYTE_GRAY or TYPE_BYTE_BINARY image that receives the pixels
+     */
+    public static void GSImg(BytePlane raw, BufferedImage img) {
+        if (!OutputType(img.getType()) || img.getWidth() != raw.width || img.getHeight() != raw.height) {
+            throw new IllegalArgumentException("ERROR: Output image does not match grayscale plane!");
+        }
+        
+        GSImgRows(raw, img, 0, raw.height);
+    }
+    
+    /*
+     * Returns true for the image types GSImg() can write. TYPE_BYTE_BINARY images may also have 2 or 4 bits per
+     * pixel, which it cannot.
+     */
+    static boolean OutputType(int type) {
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_BYTE_BINARY;
+    }
+    
+    /*
+     * Writes only rows [rowStart, rowEnd) of the plane into the image, which must be of a type OutputType() accepts.
+     */
+    static void GSImgRows(BytePlane raw, BufferedImage img, int rowStart, int rowEnd) {
+        switch (img.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY :
+                GrayImgRows(raw, img, rowStart, rowEnd);
+                break;
+            case BufferedImage.TYPE_BYTE_BINARY :
+                BinaryImgRows(raw, img, rowStart, rowEnd);
+                break;
+            default :
+                PackedImgRows(raw, img, rowStart, rowEnd);
+        }
+    }
+    
+    /*
+     * Writes rows of a TYPE_INT_RGB image, repeating each gray value in all three channels.
+     */
+    private static void PackedImgRows(BytePlane raw, BufferedImage img, int rowStart, int rowEnd) {
+        int width = raw.width;
+        byte[] data = raw.data;
+        int stride = raw.stride;
+        WritableRaster raster = img.getRaster();
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan - raster.getSampleModelTranslateX();
+        
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowOut = offset + i * scan;
+            int rowIn = i * stride;
+            
+            for (int j = 0; j < width; j++) {
+                int gs = data[rowIn + j] & 0xff;
+                pixels[rowOut + j] = (gs << 16) | (gs << 8) | gs;
+            }
+        }
+    }
+    
+    /*
+     * Writes rows of a TYPE_BYTE_GRAY image, which hold the same bytes as the plane.
+     */
+    private static void GrayImgRows(BytePlane raw, BufferedImage img, int rowStart, int rowEnd) {
+        WritableRaster raster = img.getRaster();
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan - raster.getSampleModelTranslateX();
+        
+        for (int i = rowStart; i < rowEnd; i++) {
+            System.arraycopy(raw.data, i * raw.stride, pixels, offset + i * scan, raw.width);
+        }
+    }
+    
+    /*
+     * Writes rows of a 1-bit TYPE_BYTE_BINARY image. Pixels are packed 8 to a byte, leftmost in the highest bit, and
+     * each byte is built up in a register and stored once. A row need not start or end on a byte boundary, as in a
+     * subimage, so the bits outside it in its first and last bytes are kept.
+     */
+    private static void BinaryImgRows(BytePlane raw, BufferedImage img, int rowStart, int rowEnd) {
+        int width = raw.width;
+        byte[] data = raw.data;
+        int stride = raw.stride;
+        WritableRaster raster = img.getRaster();
+        MultiPixelPackedSampleModel model = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] pixels = buffer.getData();
+        int scan = model.getScanlineStride();
+        int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scan;
+        int firstBit = model.getDataBitOffset() - raster.getSampleModelTranslateX();
+        
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowOut = 8 * (offset + i * scan) + firstBit;
+            int rowIn = i * stride;
+            int bits = 0;
+            int mask = 0;
+            
+            for (int j = 0; j < width; j++) {
+                int bit = rowOut + j;
+                int shift = 7 - (bit & 7);
+                
+                bits |= ((data[rowIn + j] & 0xff) >> 7) << shift;
+                mask |= 1 << shift;
+                
+                if (shift == 0 || j == width - 1) {
+                    int p = bit >> 3;
+                    pixels[p] = (byte) ((pixels[p] & ~mask) | bits);
+                    bits = 0;
+                    mask = 0;
+                }
+            }
+        }
+    }
+    
     /*
      * Accepts BufferedImage, returns double[][][] array of HSV values
      */
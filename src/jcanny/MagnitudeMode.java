@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This enum selects what a CannyDetector stores as the gradient magnitude of each pixel.
+ * 
+ * @author robert
+ */
+
+public enum MagnitudeMode {
+    /**
+     * Math.sqrt(gx^2 + gy^2), the true length of the gradient.
+     */
+    EUCLIDEAN,
+    
+    /**
+     * gx^2 + gy^2, which orders pixels the same way without a square root. The thresholds are still chosen in
+     * units of the true length and squared before they are compared, so the edges match EUCLIDEAN's. PERCENTILE
+     * and OTSU thresholds bin the squares against squared bin edges, so no square root is taken at all; DEVIATION
+     * thresholds need the mean of the true lengths, so their statistics still take one square root per pixel.
+     */
+    SQUARED,
+    
+    /**
+     * |gx| + |gy|, a cheaper norm that overstates diagonal gradients by up to a factor of sqrt(2). Thresholds are
+     * chosen from these values directly, so the edges differ slightly from EUCLIDEAN's.
+     */
+    L1
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class combines partial statistics of the gradient magnitude, one part (a row or a tile) at a time, into
+ * the mean and standard deviation the hysteresis thresholds are built from. Each part gives its pixel count, sum
+ * and sum of squares; parts are merged with the pairwise update of Chan, Golub and LeVeque, which stays accurate
+ * where sum of squares minus squared sum would cancel. Merging the parts in a fixed order makes the result
+ * independent of which thread produced them.
+ * 
+ * When the parts are only a sample of the image, the products of each part's count, sum and sum of squares are
+ * also totalled, from which Error() bounds how far the threshold may be from the one the whole image would give.
+ * The parts, not the pixels, are taken as the units sampled: a sampled row or strip is read whole, and its pixels
+ * are too alike to count as independent draws.
+ * 
+ * @author robert
+ */
+
+final class Moments {
+    private double pixels;          //Pixels merged so far
+    private double mean;            //Mean of the pixels merged so far
+    private double spread;          //Sum of squared differences from that mean
+    private double parts;           //Sampled parts merged so far
+    private double ss;              //Sum over sampled parts of sum * sum
+    private double qq;              //Sum over sampled parts of squares * squares
+    private double nn;              //Sum over sampled parts of count * count
+    private double sq;              //Sum over sampled parts of sum * squares
+    private double sn;              //Sum over sampled parts of sum * count
+    private double qn;              //Sum over sampled parts of squares * count
+    
+    /*
+     * Forgets every part merged so far.
+     */
+    void Clear() {
+        pixels = 0;
+        mean = 0;
+        spread = 0;
+        parts = 0;
+        ss = qq = nn = sq = sn = qn = 0;
+    }
+    
+    /*
+     * Merges one part of count pixels with the given sum and sum of squares.
+     */
+    void Add(double count, double sum, double squares) {
+        if (count > 0) {
+            double partMean = sum / count;
+            double partSpread = Math.max(squares - sum * partMean, 0);
+            double delta = partMean - mean;
+            double total = pixels + count;
+            
+            mean += delta * count / total;
+            spread += partSpread + delta * delta * pixels * count / total;
+            pixels = total;
+        }
+    }
+    
+    /*
+     * Merges one sampled part of count pixels with the given sum and sum of squares.
+     */
+    void AddSample(double count, double sum, double squares) {
+        Add(count, sum, squares);
+        parts++;
+        ss += sum * sum;
+        qq += squares * squares;
+        nn += count * count;
+        sq += sum * squares;
+        sn += sum * count;
+        qn += squares * count;
+    }
+    
+    /*
+     * Half-width of a 95% confidence interval for mean + numDev * deviation, treating the sampled parts as a
+     * simple random sample of the image's parts. By the delta method each pixel m contributes (m - mean) +
+     * numDev * ((m - mean)^2 - var) / (2 * deviation) to the error; these total 0 over the sample, and the spread
+     * of their totals from part to part gives the variance of the estimate, whatever the correlation within parts.
+     * Fewer than two parts leave that spread unknown, and give NaN.
+     */
+    double Error(int numDev) {
+        double var = (pixels > 0) ? spread / pixels : 0;
+        
+        if (parts < 2) {
+            return Double.NaN;
+        } else if (var <= 0) {
+            return 0;
+        }
+        
+        double dev = Math.sqrt(var);
+        double a = 1 - numDev * mean / dev;                                 //Weight of a part's sum
+        double b = numDev / (2 * dev);                                      //Weight of its sum of squares
+        double c = -mean + numDev * (mean * mean - var) / (2 * dev);        //Weight of its count
+        double totals = a * a * ss + b * b * qq + c * c * nn + 2 * (a * b * sq + a * c * sn + b * c * qn);
+        
+        return 1.96 * Math.sqrt(Math.max(totals, 0) * parts / (parts - 1)) / pixels;
+    }
+    
+    /*
+     * A fixed pseudo-random offset in [0, span) for the given stratum, so that sampled rows do not line up with
+     * periodic structure in the image while runs stay reproducible.
+     */
+    static int Offset(long stratum, int span) {
+        return (int) ((((stratum + 1) * 0x9E3779B97F4A7C15L) >>> 33) % span);
+    }
+    
+    /*
+     * Adds the sum and sum of squares of the width magnitudes starting at m[pos] into out[index] and out[index +
+     * step], taking their square roots first if root is set.
+     */
+    static void PowerSums(float[] m, int pos, int width, boolean root, double[] out, int index, int step) {
+        double sum = 0;
+        double squares = 0;
+        
+        for (int c = pos; c < pos + width; c++) {
+            double magnitude = root ? Math.sqrt(m[c]) : m[c];
+            
+            sum += magnitude;
+            squares += magnitude * magnitude;
+        }
+        
+        out[index] += sum;
+        out[index + step] += squares;
+    }
+    
+    /*
+     * The mean, rounded to an int as the thresholds have always used it.
+     */
+    int Mean() {
+        return (int) Math.round(mean);
+    }
+    
+    /*
+     * The standard deviation about the rounded mean, truncated to an int as the thresholds have always used it.
+     */
+    int Deviation() {
+        double offset = mean - Mean();
+        
+        return (pixels > 0) ? (int) Math.sqrt((spread + pixels * offset * offset) / pixels) : 0;
+    }
+}
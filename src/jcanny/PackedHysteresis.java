@@ -0,0 +1,229 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class runs flood-fill hysteresis on packed bit masks, 64 pixels to a long. One mask holds the candidates
+ * (pixels at or above the low threshold) and the other the edges found so far, starting from the strong pixels.
+ * Rows of edges are grown by 8-neighbour dilation of the rows above and below, masked by the candidates, and
+ * then filled along each run of candidates with carry arithmetic, a whole word at a time. Sweeping down and up
+ * the image until nothing changes keeps exactly the pixels CannyDetector.Flood() keeps.
+ * 
+ * Each word of a sparse edge map is touched a handful of times per sweep instead of visiting every pixel, and the
+ * two masks take 2 bits per pixel.
+ * 
+ * @author robert
+ */
+
+final class PackedHysteresis {
+    private FloatPlane mag;         //Suppressed gradient magnitude
+    private BytePlane bin;          //Binary edge image
+    private double tHi;             //Hysteresis high threshold
+    private double tLo;             //Hysteresis low threshold
+    private float candidateBound;   //Smallest float magnitude that is a candidate, for the SIMD comparisons
+    private float strongBound;      //Smallest float magnitude that is strong
+    private long[] bits;            //Candidate mask, then edge mask, each words * height longs
+    private int words;              //Longs per row
+    private int edges;              //Index of the edge mask in bits
+    
+    //Packing and unpacking are independent per row, so they run in bands like the other stages
+    private final Bands.Task packTask = this::PackRows;
+    private final Bands.Task unpackTask = this::UnpackRows;
+    
+    /*
+     * Returns how many longs Run() takes from the workspace for a binary image of the given size.
+     */
+    static int Length(int width, int height) {
+        return 2 * ((width + 63) >>> 6) * height;
+    }
+    
+    /*
+     * Fills bin from mag and the thresholds, keeping the masks in the workspace.
+     */
+    void Run(ForkJoinPool pool, FloatPlane mag, BytePlane bin, CannyWorkspace ws, double tHi, double tLo) {
+        int height = bin.height;
+        boolean changed = true;
+        this.mag = mag;
+        this.bin = bin;
+        this.tHi = tHi;
+        this.tLo = tLo;
+        candidateBound = Simd.AtLeast(Math.min(tLo, tHi));
+        strongBound = Simd.AtLeast(tHi);
+        words = (bin.width + 63) >>> 6;
+        edges = words * height;
+        bits = ws.Words(Length(bin.width, height));
+        
+        Bands.Run(pool, height, packTask);
+        
+        while (changed) {
+            changed = false;
+            
+            for (int r = 0; r < height; r++) {
+                changed |= GrowRow(r);
+            }
+            
+            for (int r = height - 1; r >= 0; r--) {
+                changed |= GrowRow(r);
+            }
+        }
+        
+        Bands.Run(pool, height, unpackTask);
+        this.mag = null;
+        this.bin = null;
+        bits = null;
+    }
+    
+    /*
+     * Packs the candidates and strong pixels of rows [rowStart, rowEnd) into the masks.
+     */
+    private void PackRows(int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            int rowMag = (r + 1) * mag.stride + 1;
+            int row = r * words;
+            
+            for (int w = 0; w < words; w++) {
+                int start = w << 6;
+                int end = Math.min(start + 64, bin.width);
+                long cand = 0;
+                long strong = 0;
+                
+                if (Simd.ENABLED) {
+                    //Compare whole vectors, then let Strong() look past the border for the pixels next to it
+                    cand = VectorKernels.AtLeast(mag.data, rowMag + start, end - start, candidateBound);
+                    strong = cand & VectorKernels.AtLeast(mag.data, rowMag + start, end - start, strongBound);
+                    
+                    if (r == 0 || r == bin.height - 1) {
+                        for (int c = start; c < end; c++) {
+                            strong |= Seed(cand, r, c);
+                        }
+                    } else {
+                        strong |= (start == 0) ? Seed(cand, r, 0) : 0;
+                        strong |= (end == bin.width) ? Seed(cand, r, end - 1) : 0;
+                    }
+                } else {
+                    for (int c = start; c < end; c++) {
+                        double magnitude = mag.data[rowMag + c];
+                        
+                        if (magnitude >= tLo || magnitude >= tHi) {
+                            cand |= 1L << c;
+                            strong |= Seed(cand, r, c);
+                        }
+                    }
+                }
+                
+                bits[row + w] = cand;
+                bits[edges + row + w] = strong;
+            }
+        }
+    }
+    
+    /*
+     * Returns the bit of pixel c in a word of strong pixels, set if it is a candidate in cand and Strong() holds.
+     */
+    private long Seed(long cand, int r, int c) {
+        return (((cand >>> c) & 1) != 0 && Components.Strong(mag, tHi, r, c)) ? 1L << c : 0;
+    }
+    
+    /*
+     * Adds to edge row r every candidate next to an edge in rows r - 1 and r + 1, then every candidate joined to an
+     * edge along its own row. Returns whether any pixel was added.
+     */
+    private boolean GrowRow(int r) {
+        int row = r * words;
+        int above = (r > 0) ? edges + row - words : -1;
+        int below = (r < bin.height - 1) ? edges + row + words : -1;
+        long[] b = bits;
+        long before = 0;
+        long after = 0;
+        long prev = 0;
+        long next = Neighbours(above, below, 0);
+        
+        //Dilate the rows above and below into this row
+        for (int w = 0; w < words; w++) {
+            long cur = next;
+            long e = b[edges + row + w];
+            next = (w + 1 < words) ? Neighbours(above, below, w + 1) : 0;
+            long dilated = cur | (cur << 1) | (prev >>> 63) | (cur >>> 1) | (next << 63);
+            
+            before += Long.bitCount(e);
+            b[edges + row + w] = e | (dilated & b[row + w]);
+            prev = cur;
+        }
+        
+        //Fill each run of candidates holding an edge towards higher pixels; adding the edges to the run carries
+        //through it, flipping every bit above the lowest edge
+        long carry = 0;
+        
+        for (int w = 0; w < words; w++) {
+            long cand = b[row + w];
+            long seed = b[edges + row + w] | (carry & cand);
+            long fill = (((cand + seed) ^ cand) & cand) | seed;
+            
+            b[edges + row + w] = fill;
+            carry = fill >>> 63;
+        }
+        
+        //Then towards lower pixels, the same way on bit-reversed words
+        carry = 0;
+        
+        for (int w = words - 1; w >= 0; w--) {
+            long cand = Long.reverse(b[row + w]);
+            long seed = Long.reverse(b[edges + row + w]) | (carry & cand);
+            long fill = (((cand + seed) ^ cand) & cand) | seed;
+            
+            b[edges + row + w] = Long.reverse(fill);
+            after += Long.bitCount(fill);
+            carry = fill >>> 63;
+        }
+        
+        return after != before;
+    }
+    
+    /*
+     * Edge word w of the rows above and below, either of which may be missing (-1).
+     */
+    private long Neighbours(int above, int below, int w) {
+        long n = 0;
+        
+        if (above >= 0) {
+            n |= bits[above + w];
+        }
+        
+        if (below >= 0) {
+            n |= bits[below + w];
+        }
+        
+        return n;
+    }
+    
+    /*
+     * Writes rows [rowStart, rowEnd) of the binary image from the edge mask.
+     */
+    private void UnpackRows(int rowStart, int rowEnd) {
+        for (int r = rowStart; r < rowEnd; r++) {
+            int row = edges + r * words;
+            int rowBin = r * bin.stride;
+            
+            for (int c = 0; c < bin.width; c++) {
+                bin.data[rowBin + c] = (byte) (((bits[row + (c >>> 6)] >>> c) & 1) * 255);
+            }
+        }
+    }
+}
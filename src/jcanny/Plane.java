@@ -0,0 +1,98 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class is the base of the flat image types used by the detector. A plane stores its pixels
+ * row-major in a single primitive array, with row r starting at index r * stride.
+ * 
+ * @author robert
+ */
+
+public abstract class Plane {
+    int width;      //Number of pixels in each row
+    int height;     //Number of rows
+    int stride;     //Distance in the backing array between the starts of two adjacent rows
+    
+    Plane(int width, int height, int stride) {
+        if (width < 0 || height < 0 || stride < width) {
+            throw new IllegalArgumentException("ERROR: Invalid plane dimensions!");
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+    
+    /**
+     * @return width    int, the number of pixels in each row
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return height   int, the number of rows
+     */
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return stride   int, the distance in the backing array between the starts of two rows
+     */
+    public int getStride() {
+        return stride;
+    }
+    
+    /**
+     * Send this method a pixel's coordinates to get its index in the backing array.
+     * 
+     * @param x     int, column of the pixel
+     * @param y     int, row of the pixel
+     * @return i    int, index of the pixel in the backing array
+     */
+    public int Index(int x, int y) {
+        return y * stride + x;
+    }
+    
+    /**
+     * Call this method to give the plane new dimensions without allocating, if its backing array
+     * is large enough. The stride becomes the new width and pixel values are left undefined.
+     * 
+     * @param width     int, the new number of pixels in each row
+     * @param height    int, the new number of rows
+     * @return fits     boolean, false if the backing array is too small and the plane was left unchanged
+     */
+    boolean Reshape(int width, int height) {
+        if (width < 0 || height < 0 || (long) width * height > Capacity()) {
+            return false;
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        
+        return true;
+    }
+    
+    /*
+     * Returns the length of the backing array.
+     */
+    abstract int Capacity();
+}
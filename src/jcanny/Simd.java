@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This class decides once whether the inner loops use the SIMD kernels in VectorKernels. They need the
+ * jdk.incubator.vector module, which the JVM only loads when started with --add-modules jdk.incubator.vector,
+ * and a CPU with vector registers of at least 256 bits, such as AVX2. Otherwise, or when the system property
+ * jcanny.vector is set to false, every loop runs its scalar code. Both give identical results.
+ * 
+ * VectorKernels is only loaded once this check passes, so the rest of the detector runs on JVMs without the module.
+ * 
+ * @author robert
+ */
+
+final class Simd {
+    static final boolean ENABLED = Detect();    //Whether the vector kernels are used
+    
+    private Simd() {
+    }
+    
+    /*
+     * Checks for the module and the property, then asks the kernels whether vectors are wide enough to be worth it.
+     */
+    private static boolean Detect() {
+        boolean enabled = false;
+        
+        if (!"false".equals(System.getProperty("jcanny.vector"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                enabled = VectorKernels.Usable();
+            } catch (LinkageError | SecurityException ex) {
+                enabled = false;
+            }
+        }
+        
+        return enabled;
+    }
+    
+    /**
+     * Send this method a threshold to get the smallest float at or above it. A float magnitude m is then at or above
+     * the threshold exactly when m >= AtLeast(threshold), so float lanes can be compared without widening.
+     * 
+     * @param threshold double, the threshold
+     * @return bound    float, the smallest float not below threshold
+     */
+    static float AtLeast(double threshold) {
+        float bound = (float) threshold;
+        
+        return (bound < threshold) ? Math.nextUp(bound) : bound;
+    }
+}
@@ -24,10 +24,6 @@ package jcanny;
  */
 
 public class Sobel {
-    //The masks for each Sobel convolution
-    private static final int[][] MASK_H = { {-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1} };
-    private static final int[][] MASK_V = { {-1, -2, -1}, {0, 0, 0}, {1, 2, 1} };
-    
     /**
      * Send this method an int[][] array of grayscale pixel values to get a an image resulting
      * from the convolution of this image with the horizontal Sobel mask.
@@ -36,29 +32,9 @@ public class Sobel {
      * @return out  int[][], output array of convolved image.
      */
     public static int[][] Horizontal(int[][] raw) {
-        int[][] out = null;
-        int height = raw.length;
-        int width = raw[0].length;
-        
-        if (height > 2 && width > 2) {
-            out = new int[height - 2][width - 2];
+        IntPlane out = Horizontal(IntPlane.FromArray(raw));
         
-            for (int r = 1; r < height - 1; r++) {
-                for (int c = 1; c < width - 1; c++) {
-                    int sum = 0;
-
-                    for (int kr = -1; kr < 2; kr++) {
-                        for (int kc = -1; kc < 2; kc++) {
-                            sum += (MASK_H[kr + 1][kc + 1] * raw[r + kr][c + kc]);
-                        }
-                    }
-
-                    out[r - 1][c - 1] = sum;
-                }
-            }
-        }
-        
-        return out;
+        return (out == null) ? null : out.ToArray();
     }
     
     /**
@@ -69,24 +45,248 @@ public class Sobel {
      * @return out  int[][], output array of convolved image.
      */
     public static int[][] Vertical(int[][] raw) {
-        int[][] out = null;
-        int height = raw.length;
-        int width = raw[0].length;
+        IntPlane out = Vertical(IntPlane.FromArray(raw));
         
-        if (height > 2 || width > 2) {
-            out = new int[height - 2][width - 2];
+        return (out == null) ? null : out.ToArray();
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale pixel values to get an image resulting
+     * from the convolution of this image with the horizontal Sobel mask.
+     * 
+     * @param raw   IntPlane, plane of grayscale pixel values 0-255
+     * @return out  IntPlane, output plane of convolved image.
+     */
+    public static IntPlane Horizontal(IntPlane raw) {
+        return Convolve(raw, false);
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale pixel values to get an image resulting
+     * from the convolution of this image with the vertical Sobel mask.
+     * 
+     * @param raw   IntPlane, plane of grayscale pixel values 0-255
+     * @return out  IntPlane, output plane of convolved image.
+     */
+    public static IntPlane Vertical(IntPlane raw) {
+        return Convolve(raw, true);
+    }
+    
+    /**
+     * Send this method an IntPlane of grayscale pixel values to get the gradient magnitude and direction
+     * of every interior pixel in a single pass. Each source column is read once and its partial sums are
+     * shared by both Sobel masks, so the horizontal and vertical convolutions are never stored.
+     * 
+     * @param raw   IntPlane, plane of grayscale pixel values 0-255
+     * @param mag   FloatPlane, receives Math.sqrt(gx^2 + gy^2); must be 2 pixels narrower and shorter than raw
+     * @param dir   BytePlane, receives the direction code of each pixel (see Direction()); same size as mag
+     */
+    public static void Gradient(IntPlane raw, FloatPlane mag, BytePlane dir) {
+        Gradient(raw, mag, dir, MagnitudeMode.EUCLIDEAN);
+    }
+    
+    /**
+     * Send this method the same planes as Gradient() and a MagnitudeMode to choose what is stored as the magnitude.
+     * 
+     * @param raw   IntPlane, plane of grayscale pixel values 0-255
+     * @param mag   FloatPlane, receives the magnitude; must be 2 pixels narrower and shorter than raw
+     * @param dir   BytePlane, receives the direction code of each pixel (see Direction()); same size as mag
+     * @param mode  MagnitudeMode, EUCLIDEAN, SQUARED or L1
+     */
+    public static void Gradient(IntPlane raw, FloatPlane mag, BytePlane dir, MagnitudeMode mode) {
+        if (mag.width != raw.width - 2 || mag.height != raw.height - 2
+                || dir.width != mag.width || dir.height != mag.height) {
+            throw new IllegalArgumentException("ERROR: Gradient planes do not match source plane!");
+        }
         
-            for (int r = 1; r < height - 1; r++) {
-                for (int c = 1; c < width - 1; c++) {
-                    int sum = 0;
-
-                    for (int kr = -1; kr < 2; kr++) {
-                        for (int kc = -1; kc < 2; kc++) {
-                            sum += (MASK_V[kr + 1][kc + 1] * raw[r + kr][c + kc]);
-                        }
-                    }
-
-                    out[r - 1][c - 1] = sum;
+        GradientRows(raw, mag, dir, mode, 0, mag.height);
+    }
+    
+    /**
+     * Send this method the same planes as Gradient() to fill only output rows [rowStart, rowEnd).
+     * Reads source rows rowStart through rowEnd + 1.
+     * 
+     * @param raw       IntPlane, plane of grayscale pixel values 0-255
+     * @param mag       FloatPlane, receives the gradient magnitude
+     * @param dir       BytePlane, receives the gradient direction code
+     * @param rowStart  int, first output row to fill
+     * @param rowEnd    int, one past the last output row to fill
+     */
+    public static void GradientRows(IntPlane raw, FloatPlane mag, BytePlane dir, int rowStart, int rowEnd) {
+        GradientRows(raw, mag, dir, MagnitudeMode.EUCLIDEAN, rowStart, rowEnd);
+    }
+    
+    /**
+     * Send this method the same arguments as GradientRows() and a MagnitudeMode.
+     * 
+     * @param raw       IntPlane, plane of grayscale pixel values 0-255
+     * @param mag       FloatPlane, receives the gradient magnitude
+     * @param dir       BytePlane, receives the gradient direction code
+     * @param mode      MagnitudeMode, EUCLIDEAN, SQUARED or L1
+     * @param rowStart  int, first output row to fill
+     * @param rowEnd    int, one past the last output row to fill
+     */
+    public static void GradientRows(IntPlane raw, FloatPlane mag, BytePlane dir, MagnitudeMode mode, int rowStart, int rowEnd) {
+        int width = mag.width;
+        int inStride = raw.stride;
+        int[] in = raw.data;
+        float[] m = mag.data;
+        byte[] d = dir.data;
+        
+        for (int r = rowStart; r < rowEnd; r++) {
+            int top = r * inStride;
+            
+            if (mode == MagnitudeMode.SQUARED) {
+                GradientRowSquared(in, top, top + inStride, top + 2 * inStride, m, r * mag.stride, d, r * dir.stride, width);
+            } else if (mode == MagnitudeMode.L1) {
+                GradientRowL1(in, top, top + inStride, top + 2 * inStride, m, r * mag.stride, d, r * dir.stride, width);
+            } else {
+                GradientRow(in, top, top + inStride, top + 2 * inStride, m, r * mag.stride, d, r * dir.stride, width);
+            }
+        }
+    }
+    
+    /*
+     * Fills one row of magnitude and direction from three source rows starting at top, mid and bot.
+     * The rows may live anywhere in the array, which lets streaming callers keep them in a ring buffer.
+     * 
+     * Both masks are outer products of [1 2 1] and [-1 0 1], so each source column is reduced once to its smoothed
+     * sum (top + 2 * mid + bot) and its difference (bot - top): gx is the difference of the smoothed sums two
+     * columns apart, and gy the [1 2 1] sum of three differences. Each pixel hands two columns on to the next.
+     */
+    static void GradientRow(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int c = Simd.ENABLED ? VectorKernels.GradientRow(in, top, mid, bot, m, rowMag, d, rowDir, width) : 0;
+        
+        int smooth0 = in[top + c] + 2 * in[mid + c] + in[bot + c], delta0 = in[bot + c] - in[top + c];
+        int smooth1 = in[top + c + 1] + 2 * in[mid + c + 1] + in[bot + c + 1], delta1 = in[bot + c + 1] - in[top + c + 1];
+        
+        for (; c < width; c++) {
+            int smooth2 = in[top + c + 2] + 2 * in[mid + c + 2] + in[bot + c + 2];
+            int delta2 = in[bot + c + 2] - in[top + c + 2];
+            int gx = smooth2 - smooth0;
+            int gy = delta0 + 2 * delta1 + delta2;
+            
+            m[rowMag + c] = (float) Math.sqrt(gx * gx + gy * gy);
+            d[rowDir + c] = (byte) Direction(gx, gy);
+            smooth0 = smooth1;
+            smooth1 = smooth2;
+            delta0 = delta1;
+            delta1 = delta2;
+        }
+    }
+    
+    /*
+     * GradientRow storing gx^2 + gy^2, which is exact in a float for 8-bit input.
+     */
+    static void GradientRowSquared(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int c = Simd.ENABLED ? VectorKernels.GradientRowSquared(in, top, mid, bot, m, rowMag, d, rowDir, width) : 0;
+        
+        int smooth0 = in[top + c] + 2 * in[mid + c] + in[bot + c], delta0 = in[bot + c] - in[top + c];
+        int smooth1 = in[top + c + 1] + 2 * in[mid + c + 1] + in[bot + c + 1], delta1 = in[bot + c + 1] - in[top + c + 1];
+        
+        for (; c < width; c++) {
+            int smooth2 = in[top + c + 2] + 2 * in[mid + c + 2] + in[bot + c + 2];
+            int delta2 = in[bot + c + 2] - in[top + c + 2];
+            int gx = smooth2 - smooth0;
+            int gy = delta0 + 2 * delta1 + delta2;
+            
+            m[rowMag + c] = gx * gx + gy * gy;
+            d[rowDir + c] = (byte) Direction(gx, gy);
+            smooth0 = smooth1;
+            smooth1 = smooth2;
+            delta0 = delta1;
+            delta1 = delta2;
+        }
+    }
+    
+    /*
+     * GradientRow storing |gx| + |gy|.
+     */
+    static void GradientRowL1(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int c = Simd.ENABLED ? VectorKernels.GradientRowL1(in, top, mid, bot, m, rowMag, d, rowDir, width) : 0;
+        
+        int smooth0 = in[top + c] + 2 * in[mid + c] + in[bot + c], delta0 = in[bot + c] - in[top + c];
+        int smooth1 = in[top + c + 1] + 2 * in[mid + c + 1] + in[bot + c + 1], delta1 = in[bot + c + 1] - in[top + c + 1];
+        
+        for (; c < width; c++) {
+            int smooth2 = in[top + c + 2] + 2 * in[mid + c + 2] + in[bot + c + 2];
+            int delta2 = in[bot + c + 2] - in[top + c + 2];
+            int gx = smooth2 - smooth0;
+            int gy = delta0 + 2 * delta1 + delta2;
+            
+            m[rowMag + c] = Math.abs(gx) + Math.abs(gy);
+            d[rowDir + c] = (byte) Direction(gx, gy);
+            smooth0 = smooth1;
+            smooth1 = smooth2;
+            delta0 = delta1;
+            delta1 = delta2;
+        }
+    }
+    
+    /**
+     * Send this method a pixel's horizontal and vertical Sobel responses to get the direction code
+     * used by non-maximum suppression. Code k stands for the direction k * 45 degrees.
+     * 
+     * The code is that of the group Math.atan2(gy, gx) falls in, but found without it: the gradient is within 22.5
+     * degrees of horizontal when |gy| <= |gx| * tan(22.5), and within 22.5 degrees of vertical when
+     * |gy| >= |gx| * tan(67.5).
+     * Since tan(22.5) = sqrt(2) - 1 and tan(67.5) = sqrt(2) + 1, both tests are done exactly on squared ints, and
+     * the signs of gx and gy pick the diagonal.
+     * 
+     * @param gx    int, horizontal Sobel response
+     * @param gy    int, vertical Sobel response
+     * @return dir  int, 0 (left/right), 1 (upper right/lower left), 2 (top/bottom) or 3 (upper left/lower right)
+     */
+    public static int Direction(int gx, int gy) {
+        int ax = Math.abs(gx);
+        int ay = Math.abs(gy);
+        int sum = ax + ay;
+        int diff = ay - ax;
+        int twice = 2 * ax * ax;
+        
+        if (sum * sum <= twice) {
+            return 0;
+        } else if (diff >= 0 && diff * diff >= twice) {
+            return 2;
+        } else {
+            return ((gx ^ gy) >= 0) ? 1 : 3;
+        }
+    }
+    
+    /*
+     * Convolves a plane with the horizontal mask { {-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1} } or the vertical mask
+     * { {-1, -2, -1}, {0, 0, 0}, {1, 2, 1} }, dropping the 1-pixel border. As in GradientRow(), each source column
+     * is reduced once to one partial sum, [1 2 1] down it for the horizontal mask and [-1 0 1] for the vertical one,
+     * and the output combines three of them with the other factor.
+     */
+    private static IntPlane Convolve(IntPlane raw, boolean vertical) {
+        IntPlane out = null;
+        int height = raw.height;
+        int width = raw.width;
+        int inStride = raw.stride;
+        int[] in = raw.data;
+        
+        if (height > 2 && width > 2) {
+            out = new IntPlane(width - 2, height - 2);
+            
+            int outStride = out.stride;
+            int[] outData = out.data;
+        
+            for (int r = 0; r < height - 2; r++) {
+                int top = r * inStride;
+                int mid = top + inStride;
+                int bot = mid + inStride;
+                int rowOut = r * outStride;
+                int part0 = vertical ? in[bot] - in[top] : in[top] + 2 * in[mid] + in[bot];
+                int part1 = vertical ? in[bot + 1] - in[top + 1] : in[top + 1] + 2 * in[mid + 1] + in[bot + 1];
+                
+                for (int c = 0; c < width - 2; c++) {
+                    int part2 = vertical ? in[bot + c + 2] - in[top + c + 2]
+                            : in[top + c + 2] + 2 * in[mid + c + 2] + in[bot + c + 2];
+                    
+                    outData[rowOut + c] = vertical ? part0 + 2 * part1 + part2 : part2 - part0;
+                    part0 = part1;
+                    part1 = part2;
                 }
             }
         }
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+/**
+ * This enum selects how a CannyDetector or CannyTiler picks the high hysteresis threshold from the gradient
+ * magnitude. The low threshold is always a fraction of the high one.
+ * 
+ * @author robert
+ */
+
+public enum ThresholdMode {
+    /**
+     * The mean plus a number of standard deviations of the magnitude.
+     */
+    DEVIATION,
+    
+    /**
+     * The magnitude below which a given fraction of the pixels fall, read from a histogram built during the
+     * gradient pass.
+     */
+    PERCENTILE,
+    
+    /**
+     * The magnitude that best splits the histogram into two classes, by Otsu's method.
+     */
+    OTSU
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class holds SIMD versions of the detector's inner loops, written with the incubating Vector API. Each kernel
+ * does the same arithmetic in the same order as the scalar loop it replaces, lane by lane, so results are identical.
+ * A kernel handles as many whole vectors of a row as fit and returns how many pixels it did, and the scalar loop
+ * finishes the rest. Only call these when Simd.ENABLED is true.
+ * 
+ * The blur works in double lanes, as the scalar blur does. The gradient and thresholds work in int and float
+ * lanes, twice as many per vector, and every vector has the same shape but the byte ones, which hold one byte per
+ * int lane.
+ * 
+ * No vector is passed to or returned from a method here. C2 stops inlining ordinary methods once a compilation
+ * grows large, which these loops quickly do, and a vector that crosses a call that was not inlined is boxed on the
+ * heap.
+ * 
+ * @author robert
+ */
+
+final class VectorKernels {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, 8 * INTS.length())));
+    private static final double TWO_52 = 0x1p52;    //Smallest double whose neighbours are 1 apart
+    private static final IntVector LANE_BITS = IntVector.broadcast(INTS, 1).lanewise(VectorOperators.LSHL, IntVector.zero(INTS).addIndex(1));
+    
+    private VectorKernels() {
+    }
+    
+    /*
+     * Returns true if vectors hold at least 8 ints. With 128-bit vectors the blur's doubles come 2 to a vector and
+     * the byte stores would be 4 lanes wide, and JDK 17 boxes some of those conversions instead of compiling them,
+     * so the scalar loops are used. BYTES is never asked for fewer than 64 bits so this class still loads there.
+     */
+    static boolean Usable() {
+        return INTS.length() >= 8;
+    }
+    
+    /*
+     * Returns how many pixels of a width pixel row the blur kernels do: whole vectors of ints, leaving at least half
+     * a vector after the last, since each also reads and writes half a vector past its end.
+     */
+    private static int BlurEnd(int width) {
+        int lanes = INTS.length();
+        int room = width - DOUBLES.length();
+        
+        return (room > 0) ? room - room % lanes : 0;
+    }
+    
+    /*
+     * Gaussian.HorizontalRow: each output pixel is the double sum of taps weighted input pixels, stored as a float.
+     * The ints of each half of a vector are widened to doubles and the sums narrowed back to floats, always into and
+     * from the lowest lanes: converting another part of a vector goes through slices and shuffles, which C2 does not
+     * always compile, and then every call allocates. So the upper half is read half a vector along, and each half is
+     * stored at its own place. The lanes a narrowing leaves zero are written past the half they belong to, and the
+     * next half, or the scalar loop, writes over them.
+     */
+    static int HorizontalRow(int[] in, int rowIn, double[] mask, float[] out, int rowOut, int width) {
+        int lanes = INTS.length();
+        int half = DOUBLES.length();
+        int end = BlurEnd(width);
+        
+        for (int c = 0; c < end; c += lanes) {
+            DoubleVector low = DoubleVector.zero(DOUBLES);
+            DoubleVector high = DoubleVector.zero(DOUBLES);
+            
+            for (int mr = 0; mr < mask.length; mr++) {
+                IntVector lowPixels = IntVector.fromArray(INTS, in, rowIn + c + mr);
+                IntVector highPixels = IntVector.fromArray(INTS, in, rowIn + c + half + mr);
+                low = low.add(((DoubleVector) lowPixels.convertShape(VectorOperators.I2D, DOUBLES, 0)).mul(mask[mr]));
+                high = high.add(((DoubleVector) highPixels.convertShape(VectorOperators.I2D, DOUBLES, 0)).mul(mask[mr]));
+            }
+            
+            ((FloatVector) low.convertShape(VectorOperators.D2F, FLOATS, 0)).intoArray(out, rowOut + c);
+            ((FloatVector) high.convertShape(VectorOperators.D2F, FLOATS, 0)).intoArray(out, rowOut + c + half);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * Gaussian.VerticalRow: each output pixel is the double sum of taps weighted rows, rounded like Math.round().
+     * The rows are widened and narrowed in halves as in HorizontalRow(). The sums are never negative and far below
+     * 2^51, so adding and subtracting 2^52 rounds them to the nearest integer, ties to even; ties that went down are
+     * then moved up. The rounded value plus 2^52 holds the integer in the low bits of its representation, which is
+     * narrowed to int. The Vector API in JDK 17 boxes direct double to int conversions, so this keeps the loop free
+     * of allocation.
+     */
+    static int VerticalRow(float[] in, int top, int inStride, double[] mask, int[] out, int rowOut, int width) {
+        int lanes = FLOATS.length();
+        int half = DOUBLES.length();
+        int end = BlurEnd(width);
+        
+        for (int c = 0; c < end; c += lanes) {
+            DoubleVector low = DoubleVector.zero(DOUBLES);
+            DoubleVector high = DoubleVector.zero(DOUBLES);
+            
+            for (int mr = 0; mr < mask.length; mr++) {
+                FloatVector lowPixels = FloatVector.fromArray(FLOATS, in, top + mr * inStride + c);
+                FloatVector highPixels = FloatVector.fromArray(FLOATS, in, top + mr * inStride + c + half);
+                low = low.add(((DoubleVector) lowPixels.convertShape(VectorOperators.F2D, DOUBLES, 0)).mul(mask[mr]));
+                high = high.add(((DoubleVector) highPixels.convertShape(VectorOperators.F2D, DOUBLES, 0)).mul(mask[mr]));
+            }
+            
+            DoubleVector lowRounded = low.add(TWO_52).sub(TWO_52);
+            DoubleVector highRounded = high.add(TWO_52).sub(TWO_52);
+            lowRounded = lowRounded.add(1.0, low.sub(lowRounded).compare(VectorOperators.EQ, 0.5));
+            highRounded = highRounded.add(1.0, high.sub(highRounded).compare(VectorOperators.EQ, 0.5));
+            
+            ((IntVector) lowRounded.add(TWO_52).reinterpretAsLongs().convertShape(VectorOperators.L2I, INTS, 0))
+                    .intoArray(out, rowOut + c);
+            ((IntVector) highRounded.add(TWO_52).reinterpretAsLongs().convertShape(VectorOperators.L2I, INTS, 0))
+                    .intoArray(out, rowOut + c + half);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * Sobel.GradientRow: the magnitude and direction code of each pixel from the source rows at top, mid and bot.
+     * For 8-bit input gx^2 + gy^2 is below 2^24, so it converts to float exactly and the float square root rounds
+     * the same as the scalar double one.
+     * 
+     * As in the scalar loop the masks share partial sums: the eight source vectors around the centre are loaded once,
+     * gx takes the smoothed columns two apart and gy the [1 2 1] sum of the column differences.
+     * 
+     * Sobel.Direction() is done in the same pass. Each test is turned into a lane of all ones or all zeros by
+     * shifting in its sign bit, and the code is picked with bitwise operations. The squares stay below 2^23.
+     */
+    static int GradientRow(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int lanes = INTS.length();
+        int end = width - width % lanes;
+        
+        for (int c = 0; c < end; c += lanes) {
+            IntVector top0 = IntVector.fromArray(INTS, in, top + c);
+            IntVector top1 = IntVector.fromArray(INTS, in, top + c + 1);
+            IntVector top2 = IntVector.fromArray(INTS, in, top + c + 2);
+            IntVector mid0 = IntVector.fromArray(INTS, in, mid + c);
+            IntVector mid2 = IntVector.fromArray(INTS, in, mid + c + 2);
+            IntVector bot0 = IntVector.fromArray(INTS, in, bot + c);
+            IntVector bot1 = IntVector.fromArray(INTS, in, bot + c + 1);
+            IntVector bot2 = IntVector.fromArray(INTS, in, bot + c + 2);
+            IntVector delta1 = bot1.sub(top1);
+            IntVector gx = top2.add(mid2).add(mid2).add(bot2).sub(top0.add(mid0).add(mid0).add(bot0));
+            IntVector gy = bot0.sub(top0).add(delta1).add(delta1).add(bot2.sub(top2));
+            
+            ((FloatVector) gx.mul(gx).add(gy.mul(gy)).convert(VectorOperators.I2F, 0)).sqrt().intoArray(m, rowMag + c);
+            
+            IntVector ax = gx.abs();
+            IntVector ay = gy.abs();
+            IntVector sum = ax.add(ay);
+            IntVector diff = ay.sub(ax);
+            IntVector twice = ax.mul(ax).mul(2);
+            IntVector notHorizontal = twice.sub(sum.mul(sum)).lanewise(VectorOperators.ASHR, 31);
+            IntVector vertical = diff.mul(diff).sub(twice).or(diff).lanewise(VectorOperators.ASHR, 31).not();
+            IntVector falling = gx.lanewise(VectorOperators.XOR, gy).lanewise(VectorOperators.LSHR, 31);
+            IntVector diagonal = falling.add(falling).add(1);
+            IntVector code = diagonal.lanewise(VectorOperators.XOR, diagonal.lanewise(VectorOperators.XOR, 2).and(vertical))
+                    .and(notHorizontal);
+            
+            ((ByteVector) code.convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(d, rowDir + c);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * Sobel.GradientRowSquared: as GradientRow(), storing gx^2 + gy^2.
+     */
+    static int GradientRowSquared(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int lanes = INTS.length();
+        int end = width - width % lanes;
+        
+        for (int c = 0; c < end; c += lanes) {
+            IntVector top0 = IntVector.fromArray(INTS, in, top + c);
+            IntVector top1 = IntVector.fromArray(INTS, in, top + c + 1);
+            IntVector top2 = IntVector.fromArray(INTS, in, top + c + 2);
+            IntVector mid0 = IntVector.fromArray(INTS, in, mid + c);
+            IntVector mid2 = IntVector.fromArray(INTS, in, mid + c + 2);
+            IntVector bot0 = IntVector.fromArray(INTS, in, bot + c);
+            IntVector bot1 = IntVector.fromArray(INTS, in, bot + c + 1);
+            IntVector bot2 = IntVector.fromArray(INTS, in, bot + c + 2);
+            IntVector delta1 = bot1.sub(top1);
+            IntVector gx = top2.add(mid2).add(mid2).add(bot2).sub(top0.add(mid0).add(mid0).add(bot0));
+            IntVector gy = bot0.sub(top0).add(delta1).add(delta1).add(bot2.sub(top2));
+            
+            ((FloatVector) gx.mul(gx).add(gy.mul(gy)).convert(VectorOperators.I2F, 0)).intoArray(m, rowMag + c);
+            
+            IntVector ax = gx.abs();
+            IntVector ay = gy.abs();
+            IntVector sum = ax.add(ay);
+            IntVector diff = ay.sub(ax);
+            IntVector twice = ax.mul(ax).mul(2);
+            IntVector notHorizontal = twice.sub(sum.mul(sum)).lanewise(VectorOperators.ASHR, 31);
+            IntVector vertical = diff.mul(diff).sub(twice).or(diff).lanewise(VectorOperators.ASHR, 31).not();
+            IntVector falling = gx.lanewise(VectorOperators.XOR, gy).lanewise(VectorOperators.LSHR, 31);
+            IntVector diagonal = falling.add(falling).add(1);
+            IntVector code = diagonal.lanewise(VectorOperators.XOR, diagonal.lanewise(VectorOperators.XOR, 2).and(vertical))
+                    .and(notHorizontal);
+            
+            ((ByteVector) code.convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(d, rowDir + c);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * Sobel.GradientRowL1: as GradientRow(), storing |gx| + |gy|.
+     */
+    static int GradientRowL1(int[] in, int top, int mid, int bot, float[] m, int rowMag, byte[] d, int rowDir, int width) {
+        int lanes = INTS.length();
+        int end = width - width % lanes;
+        
+        for (int c = 0; c < end; c += lanes) {
+            IntVector top0 = IntVector.fromArray(INTS, in, top + c);
+            IntVector top1 = IntVector.fromArray(INTS, in, top + c + 1);
+            IntVector top2 = IntVector.fromArray(INTS, in, top + c + 2);
+            IntVector mid0 = IntVector.fromArray(INTS, in, mid + c);
+            IntVector mid2 = IntVector.fromArray(INTS, in, mid + c + 2);
+            IntVector bot0 = IntVector.fromArray(INTS, in, bot + c);
+            IntVector bot1 = IntVector.fromArray(INTS, in, bot + c + 1);
+            IntVector bot2 = IntVector.fromArray(INTS, in, bot + c + 2);
+            IntVector delta1 = bot1.sub(top1);
+            IntVector gx = top2.add(mid2).add(mid2).add(bot2).sub(top0.add(mid0).add(mid0).add(bot0));
+            IntVector gy = bot0.sub(top0).add(delta1).add(delta1).add(bot2.sub(top2));
+            
+            ((FloatVector) gx.abs().add(gy.abs()).convert(VectorOperators.I2F, 0)).intoArray(m, rowMag + c);
+            
+            IntVector ax = gx.abs();
+            IntVector ay = gy.abs();
+            IntVector sum = ax.add(ay);
+            IntVector diff = ay.sub(ax);
+            IntVector twice = ax.mul(ax).mul(2);
+            IntVector notHorizontal = twice.sub(sum.mul(sum)).lanewise(VectorOperators.ASHR, 31);
+            IntVector vertical = diff.mul(diff).sub(twice).or(diff).lanewise(VectorOperators.ASHR, 31).not();
+            IntVector falling = gx.lanewise(VectorOperators.XOR, gy).lanewise(VectorOperators.LSHR, 31);
+            IntVector diagonal = falling.add(falling).add(1);
+            IntVector code = diagonal.lanewise(VectorOperators.XOR, diagonal.lanewise(VectorOperators.XOR, 2).and(vertical))
+                    .and(notHorizontal);
+            
+            ((ByteVector) code.convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(d, rowDir + c);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * CannyDetector.HysteresisRow for output pixels [1, end) of the row: a pixel is an edge if it is at or above hi,
+     * or at or above lo with a pixel at or above hi among its 8 neighbours. The thresholds come from Simd.AtLeast().
+     * Returns end, one past the last centre pixel done.
+     */
+    static int HysteresisRow(float[] m, int top, int mid, int bot, int width, float hi, float lo, byte[] b, int rowBin) {
+        int lanes = FLOATS.length();
+        int end = 1 + (width - 2) - (width - 2) % lanes;
+        
+        for (int c = 1; c < end; c += lanes) {
+            FloatVector centre = FloatVector.fromArray(FLOATS, m, mid + c);
+            FloatVector peak = centre;
+            
+            for (int nc = c - 1; nc <= c + 1; nc++) {
+                peak = peak.max(FloatVector.fromArray(FLOATS, m, top + nc))
+                        .max(FloatVector.fromArray(FLOATS, m, mid + nc))
+                        .max(FloatVector.fromArray(FLOATS, m, bot + nc));
+            }
+            
+            VectorMask<Float> keep = centre.compare(VectorOperators.GE, hi)
+                    .or(peak.compare(VectorOperators.GE, hi).and(centre.compare(VectorOperators.GE, lo)));
+            
+            ((ByteVector) IntVector.zero(INTS).blend(255, keep.cast(INTS)).convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(b, rowBin + c - 1);
+        }
+        
+        return end;
+    }
+    
+    /*
+     * Returns a word with bit i set for each of the count <= 64 magnitudes starting at pos that is at or above
+     * bound, which comes from Simd.AtLeast(). Each vector's lanes are turned into bits by blending in a vector of
+     * lane weights and OR-ing it down, since VectorMask.toLong() is not an intrinsic in JDK 17.
+     */
+    static long AtLeast(float[] m, int pos, int count, float bound) {
+        int lanes = FLOATS.length();
+        long word = 0;
+        int i = 0;
+        
+        for (; i + lanes <= count; i += lanes) {
+            VectorMask<Integer> set = FloatVector.fromArray(FLOATS, m, pos + i).compare(VectorOperators.GE, bound).cast(INTS);
+            word |= (IntVector.zero(INTS).blend(LANE_BITS, set).reduceLanesToLong(VectorOperators.OR) & 0xffffffffL) << i;
+        }
+        
+        for (; i < count; i++) {
+            word |= (m[pos + i] >= bound) ? 1L << i : 0;
+        }
+        
+        return word;
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the ways a detector can be run give the same edges.
+ * 
+ * @author robert
+ */
+
+public class CannyDetectorTest {
+    private static ForkJoinPool pool;
+    private static BufferedImage img;
+    
+    @BeforeClass
+    public static void setUpClass() {
+        pool = new ForkJoinPool(4);
+        img = TestImages.Shapes(301, 233, 7);
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+    
+    /*
+     * Returns the edges of img from a detector with the given settings.
+     */
+    private static BufferedImage Edges(BlurMode blur, HysteresisMode hysteresis, ThresholdMode threshold, ForkJoinPool p) {
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        
+        detector.setBlurMode(blur);
+        detector.setHysteresisMode(hysteresis);
+        detector.setThresholdMode(threshold);
+        detector.setPool(p);
+        
+        return detector.CannyEdges(img);
+    }
+    
+    @Test
+    public void testPoolMatchesSequential() {
+        for (BlurMode blur : BlurMode.values()) {
+            for (HysteresisMode hysteresis : HysteresisMode.values()) {
+                for (ThresholdMode threshold : ThresholdMode.values()) {
+                    BufferedImage sequential = Edges(blur, hysteresis, threshold, null);
+                    BufferedImage pooled = Edges(blur, hysteresis, threshold, pool);
+                    
+                    assertEquals(blur + " " + hysteresis + " " + threshold, 0, TestImages.Differences(sequential, pooled));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testFloodModesAgree() {
+        BufferedImage flood = Edges(BlurMode.FIR, HysteresisMode.FLOOD, ThresholdMode.DEVIATION, null);
+        BufferedImage packed = Edges(BlurMode.FIR, HysteresisMode.PACKED, ThresholdMode.DEVIATION, null);
+        BufferedImage unionFind = Edges(BlurMode.FIR, HysteresisMode.FLOOD, ThresholdMode.DEVIATION, pool);
+        BufferedImage neighbour = Edges(BlurMode.FIR, HysteresisMode.NEIGHBOUR, ThresholdMode.DEVIATION, null);
+        
+        assertTrue(TestImages.Edges(flood) > 0);
+        assertEquals(0, TestImages.Differences(flood, packed));
+        assertEquals(0, TestImages.Differences(flood, unionFind));
+        assertTrue(TestImages.Edges(flood) >= TestImages.Edges(neighbour));
+    }
+    
+    @Test
+    public void testMaskMatchesImage() {
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        BufferedImage edges = detector.CannyEdges(img);
+        EdgeMask mask = detector.CannyMask(img);
+        
+        assertEquals(TestImages.Edges(edges), mask.Count());
+        
+        for (int r = 0; r < edges.getHeight(); r++) {
+            for (int c = 0; c < edges.getWidth(); c++) {
+                assertEquals((edges.getRGB(c, r) & 0xff) != 0, mask.get(c, r));
+            }
+        }
+    }
+    
+    @Test
+    public void testOutputTypesMatch() {
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        BufferedImage rgb = detector.CannyEdges(img);
+        
+        for (int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY}) {
+            detector.setOutputType(type);
+            
+            BufferedImage out = detector.CannyEdges(img);
+            
+            assertEquals(type, out.getType());
+            assertEquals(0, TestImages.Differences(rgb, out));
+        }
+    }
+    
+    @Test
+    public void testTooSmallImageGivesNull() {
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        int least = 2 * detector.getRadius() + 5;
+        
+        for (int size = 1; size < least; size++) {
+            assertNull(detector.CannyEdges(TestImages.Shapes(size, 40, 1)));
+            assertNull(detector.CannyMask(TestImages.Shapes(40, size, 1)));
+        }
+        
+        BufferedImage out = detector.CannyEdges(TestImages.Shapes(least, least, 1));
+        
+        assertEquals(1, out.getWidth());
+        assertEquals(1, out.getHeight());
+        assertNull(detector.CannyEdges(null));
+    }
+    
+    @Test
+    public void testSmallSigmaOnlyRejectedByIIR() {
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        
+        //Only the recursive filter needs sigma of at least 0.5
+        detector.setSigma(0.3);
+        assertNotNull(detector.CannyEdges(img));
+        
+        try {
+            detector.setBlurMode(BlurMode.IIR);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(BlurMode.FIR, detector.getBlurMode());
+        }
+        
+        detector.setSigma(1.5);
+        detector.setBlurMode(BlurMode.IIR);
+        
+        try {
+            detector.setSigma(0.3);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(1.5, detector.getSigma(), 0);
+        }
+    }
+    
+    @Test
+    public void testSquaredMatchesEuclidean() {
+        for (ThresholdMode threshold : ThresholdMode.values()) {
+            for (double fraction : new double[] { 1, 0.25 }) {
+                CannyDetector euclidean = new CannyDetector(1, 0.2);
+                CannyDetector squared = new CannyDetector(1, 0.2);
+                
+                euclidean.setThresholdMode(threshold);
+                euclidean.setSampleFraction(fraction);
+                squared.setThresholdMode(threshold);
+                squared.setSampleFraction(fraction);
+                squared.setMagnitudeMode(MagnitudeMode.SQUARED);
+                
+                assertEquals(threshold + " " + fraction, 0,
+                        TestImages.Differences(euclidean.CannyEdges(img), squared.CannyEdges(img)));
+            }
+        }
+    }
+    
+    @Test
+    public void testSampledThresholdsWithinError() {
+        for (ThresholdMode threshold : new ThresholdMode[] {ThresholdMode.DEVIATION, ThresholdMode.PERCENTILE}) {
+            for (double fraction : new double[] {0.1, 0.25, 0.5}) {
+                int within = 0;
+                
+                for (int seed = 0; seed < 20; seed++) {
+                    BufferedImage shapes = TestImages.Shapes(301, 233, seed);
+                    CannyDetector full = new CannyDetector(1, 0.2);
+                    CannyDetector sampled = new CannyDetector(1, 0.2);
+                    
+                    full.setThresholdMode(threshold);
+                    sampled.setThresholdMode(threshold);
+                    sampled.setSampleFraction(fraction);
+                    full.CannyEdges(shapes);
+                    sampled.CannyEdges(shapes);
+                    
+                    //The bound is taken before the mean and deviation are rounded, or for a whole bin
+                    double gap = Math.abs(full.getHighThreshold() - sampled.getHighThreshold());
+                    
+                    if (gap <= sampled.getThresholdError() + 2) {
+                        within++;
+                    }
+                    
+                    assertEquals(0, full.getThresholdError(), 0);
+                }
+                
+                //A 95% bound should miss about one image in 20
+                assertTrue(threshold + " " + fraction + ": " + within, within >= 18);
+            }
+        }
+        
+        CannyDetector otsu = new CannyDetector(1, 0.2);
+        
+        otsu.setThresholdMode(ThresholdMode.OTSU);
+        otsu.setSampleFraction(0.25);
+        otsu.CannyEdges(img);
+        assertTrue(Double.isNaN(otsu.getThresholdError()));
+    }
+    
+    /*
+     * Returns a suppressed magnitude plane, with the one pixel border around the binary image, holding a weak chain
+     * led by one strong pixel and a weak chain with no strong pixel; expected receives the chain led by the strong
+     * pixel, in binary image coordinates.
+     */
+    private static FloatPlane Chains(BytePlane expected) {
+        FloatPlane mag = new FloatPlane(expected.width + 2, expected.height + 2);
+        
+        for (int c = 0; c <= 70; c++) {
+            mag.data[6 * mag.stride + c + 1] = (c == 0) ? 20 : 5;
+            expected.data[5 * expected.stride + c] = (byte) 255;
+        }
+        
+        //A diagonal leg, each pixel joined to the next only through a corner
+        for (int k = 0; k < 15; k++) {
+            mag.data[(7 + k) * mag.stride + 71 - k] = 5;
+            expected.data[(6 + k) * expected.stride + 70 - k] = (byte) 255;
+        }
+        
+        for (int c = 10; c <= 50; c++) {
+            mag.data[31 * mag.stride + c + 1] = 5;
+        }
+        
+        return mag;
+    }
+    
+    @Test
+    public void testFloodKeepsWeakChains() {
+        BytePlane expected = new BytePlane(80, 40);
+        FloatPlane mag = Chains(expected);
+        BytePlane bin = new BytePlane(80, 40);
+        
+        CannyDetector.Flood(mag, bin, 10, 3, new CannyWorkspace());
+        assertArrayEquals(expected.data, bin.data);
+        
+        for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+            bin = new BytePlane(80, 40);
+            new Components().Run(p, mag, bin, new IntPlane(80, 40), 10, 3);
+            assertArrayEquals(expected.data, bin.data);
+            
+            bin = new BytePlane(80, 40);
+            new PackedHysteresis().Run(p, mag, bin, new CannyWorkspace(), 10, 3);
+            assertArrayEquals(expected.data, bin.data);
+        }
+        
+        //NEIGHBOUR keeps the strong pixel and the one weak pixel beside it, and drops the rest of the chain
+        bin = new BytePlane(80, 40);
+        CannyDetector.HysteresisRows(mag, bin, 10, 3, 0, bin.height);
+        
+        for (int r = 0; r < bin.height; r++) {
+            for (int c = 0; c < bin.width; c++) {
+                boolean kept = r == 5 && c <= 1;
+                
+                assertEquals(r + ", " + c, kept ? (byte) 255 : 0, bin.data[r * bin.stride + c]);
+            }
+        }
+    }
+}
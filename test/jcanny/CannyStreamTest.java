@@ -0,0 +1,61 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that streaming an image in strips gives the same edges as a detector in HysteresisMode.NEIGHBOUR.
+ * 
+ * @author robert
+ */
+
+public class CannyStreamTest {
+    
+    @Test
+    public void testMatchesNeighbourDetector() {
+        BufferedImage img = TestImages.Shapes(257, 190, 21);
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        
+        detector.setHysteresisMode(HysteresisMode.NEIGHBOUR);
+        
+        BufferedImage expected = detector.CannyEdges(img);
+        
+        for (int strip : new int[] {1, 7, 64, img.getHeight()}) {
+            BufferedImage out = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+            CannyStream stream = new CannyStream(img.getWidth(), detector.getHighThreshold(), detector.getLowThreshold(),
+                    (row, edges, offset, width) -> {
+                        assertEquals(out.getWidth(), width);
+                        
+                        for (int c = 0; c < width; c++) {
+                            out.getRaster().setSample(c, (int) row, 0, edges[offset + c] & 0xff);
+                        }
+                    });
+            
+            for (int r = 0; r < img.getHeight(); r += strip) {
+                stream.PushRows(img.getSubimage(0, r, img.getWidth(), Math.min(strip, img.getHeight() - r)));
+            }
+            
+            stream.Finish();
+            assertEquals(expected.getHeight(), stream.getOutputRows());
+            assertEquals("strips of " + strip, 0, TestImages.Differences(expected, out));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the stitched tiles give the same thresholds and edges as a detector in the same hysteresis mode.
+ * 
+ * @author robert
+ */
+
+public class CannyTilerTest {
+    
+    @Test
+    public void testMatchesNeighbourDetector() {
+        BufferedImage img = TestImages.Shapes(311, 245, 31);
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        
+        detector.setHysteresisMode(HysteresisMode.NEIGHBOUR);
+        
+        BufferedImage expected = detector.CannyEdges(img);
+        
+        try {
+            for (int size : new int[] {16, 37, 100, 1024}) {
+                for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+                    BufferedImage out = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    CannyTiler tiler = new CannyTiler(1, 0.2);
+                    
+                    tiler.setTileSize(size);
+                    tiler.setPool(p);
+                    tiler.CannyEdges(CannyTiler.ImageSource(img), CannyTiler.ImageSink(out));
+                    
+                    assertEquals(detector.getHighThreshold(), tiler.getHighThreshold(), 0);
+                    assertEquals("tiles of " + size, 0, TestImages.Differences(expected, out));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testFloodMatchesFloodDetector() {
+        BufferedImage img = TestImages.Shapes(311, 245, 31);
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BufferedImage expected = detector.CannyEdges(img);
+        
+        detector.setHysteresisMode(HysteresisMode.NEIGHBOUR);
+        
+        //Chains must cross the seams for the test to mean anything
+        assertTrue(TestImages.Differences(expected, detector.CannyEdges(img)) > 0);
+        
+        try {
+            for (int size : new int[] {16, 37, 100, 1024}) {
+                for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+                    for (HysteresisMode mode : new HysteresisMode[] {HysteresisMode.FLOOD, HysteresisMode.PACKED}) {
+                        BufferedImage out = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_INT_RGB);
+                        CannyTiler tiler = new CannyTiler(1, 0.2);
+                        
+                        tiler.setTileSize(size);
+                        tiler.setPool(p);
+                        tiler.setHysteresisMode(mode);
+                        tiler.CannyEdges(CannyTiler.ImageSource(img), CannyTiler.ImageSink(out));
+                        
+                        assertEquals(mode + " tiles of " + size, 0, TestImages.Differences(expected, out));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void testFloodJoinsTileCorners() throws Exception {
+        //Shapes has no chain that crosses a tile corner diagonally, but this corner of the photograph does
+        BufferedImage img = TestImages.Photo(600, 400);
+        BufferedImage expected = new CannyDetector(1, 0.2).CannyEdges(img);
+        
+        for (int size : new int[] {16, 19}) {
+            BufferedImage out = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_INT_RGB);
+            CannyTiler tiler = new CannyTiler(1, 0.2);
+            
+            tiler.setTileSize(size);
+            tiler.setHysteresisMode(HysteresisMode.FLOOD);
+            tiler.CannyEdges(CannyTiler.ImageSource(img), CannyTiler.ImageSink(out));
+            
+            assertEquals("tiles of " + size, 0, TestImages.Differences(expected, out));
+        }
+    }
+    
+    @Test
+    public void testSampledThresholdsWithinError() {
+        for (ThresholdMode threshold : new ThresholdMode[] {ThresholdMode.DEVIATION, ThresholdMode.PERCENTILE}) {
+            for (double fraction : new double[] {0.25, 0.5}) {
+                int within = 0;
+                
+                for (int seed = 0; seed < 20; seed++) {
+                    BufferedImage img = TestImages.Shapes(301, 233, seed);
+                    BufferedImage out = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    CannyTiler full = new CannyTiler(1, 0.2);
+                    CannyTiler sampled = new CannyTiler(1, 0.2);
+                    
+                    //Twenty tiles, each sampled as one strip
+                    full.setTileSize(64);
+                    full.setThresholdMode(threshold);
+                    sampled.setTileSize(64);
+                    sampled.setThresholdMode(threshold);
+                    sampled.setSampleFraction(fraction);
+                    full.CannyEdges(CannyTiler.ImageSource(img), CannyTiler.ImageSink(out));
+                    sampled.CannyEdges(CannyTiler.ImageSource(img), CannyTiler.ImageSink(out));
+                    
+                    if (Math.abs(full.getHighThreshold() - sampled.getHighThreshold()) <= sampled.getThresholdError() + 2) {
+                        within++;
+                    }
+                }
+                
+                assertTrue(threshold + " " + fraction + ": " + within, within >= 18);
+            }
+        }
+    }
+}
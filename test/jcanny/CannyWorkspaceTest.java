@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that a detector reusing its workspace and output image stops allocating once it has seen an image.
+ * 
+ * @author robert
+ */
+
+public class CannyWorkspaceTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int CALLS = 3000;      //Most calls to wait for the JIT to compile the hot loops
+    private static final int QUIET_CALLS = 10;  //Calls in a row that must allocate nothing
+    
+    @Test
+    public void testWorkspaceStaysFlat() {
+        BufferedImage img = TestImages.Shapes(WIDTH, HEIGHT, 1);
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        BufferedImage dst = detector.CannyEdges(img, null);
+        long bytes = detector.getWorkspace().getAllocatedBytes();
+        
+        for (int i = 0; i < 50; i++) {
+            assertSame(dst, detector.CannyEdges(img, dst));
+            assertEquals(bytes, detector.getWorkspace().getAllocatedBytes());
+        }
+    }
+    
+    @Test
+    public void testThreadStopsAllocating() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        
+        assumeTrue(mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled());
+        
+        BufferedImage img = TestImages.Shapes(WIDTH, HEIGHT, 2);
+        CannyDetector detector = new CannyDetector(1, 0.2);
+        BufferedImage dst = detector.CannyEdges(img, null);
+        int quiet = 0;
+        
+        //Until the JIT has compiled them, the hot loops may allocate, e.g. by boxing vectors
+        for (int i = 0; i < CALLS && quiet < QUIET_CALLS; i++) {
+            long before = mx.getCurrentThreadAllocatedBytes();
+            
+            detector.CannyEdges(img, dst);
+            quiet = (mx.getCurrentThreadAllocatedBytes() == before) ? quiet + 1 : 0;
+        }
+        
+        assertEquals("calls in a row without allocation", QUIET_CALLS, quiet);
+    }
+    
+    @Test
+    public void testSizedWorkspaceAllocatesNothing() {
+        BufferedImage img = TestImages.Shapes(WIDTH, HEIGHT, 3);
+        CannyWorkspace ws = new CannyWorkspace(WIDTH, HEIGHT);
+        CannyDetector detector = new CannyDetector(1, 0.2, ws);
+        long bytes = ws.getAllocatedBytes();
+        
+        //Only the mode-specific hysteresis buffers are left to Reserve()
+        detector.setHysteresisMode(HysteresisMode.NEIGHBOUR);
+        assertNotNull(detector.CannyEdges(img));
+        assertEquals(bytes, ws.getAllocatedBytes());
+        
+        detector.setHysteresisMode(HysteresisMode.FLOOD);
+        detector.Reserve(WIDTH, HEIGHT);
+        bytes = ws.getAllocatedBytes();
+        assertNotNull(detector.CannyEdges(img));
+        assertEquals(bytes, ws.getAllocatedBytes());
+    }
+    
+    @Test
+    public void testReserveCoversEverySetting() {
+        BufferedImage img = TestImages.Shapes(WIDTH, HEIGHT, 4);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        
+        try {
+            for (BlurMode blur : BlurMode.values()) {
+                for (HysteresisMode hysteresis : HysteresisMode.values()) {
+                    for (ThresholdMode threshold : ThresholdMode.values()) {
+                        for (ForkJoinPool p : new ForkJoinPool[] {null, pool}) {
+                            CannyWorkspace ws = new CannyWorkspace();
+                            CannyDetector detector = new CannyDetector(1, 0.2, ws);
+                            
+                            detector.setBlurMode(blur);
+                            detector.setHysteresisMode(hysteresis);
+                            detector.setThresholdMode(threshold);
+                            detector.setPool(p);
+                            detector.Reserve(WIDTH, HEIGHT);
+                            
+                            long bytes = ws.getAllocatedBytes();
+                            
+                            detector.CannyEdges(img);
+                            assertEquals(blur + " " + hysteresis + " " + threshold + " " + p, bytes, ws.getAllocatedBytes());
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the packed mask against a plain array of booleans, with rows that end partway through their last word.
+ * 
+ * @author robert
+ */
+
+public class EdgeMaskTest {
+    private static final int WIDTH = 130;
+    private static final int HEIGHT = 9;
+    
+    /*
+     * Returns a random model in which each pixel is an edge with the given probability.
+     */
+    private static boolean[][] Model(long seed, double density) {
+        boolean[][] model = new boolean[HEIGHT][WIDTH];
+        Random rand = new Random(seed);
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                model[r][c] = rand.nextDouble() < density;
+            }
+        }
+        
+        return model;
+    }
+    
+    /*
+     * Returns a mask holding the model's edges.
+     */
+    private static EdgeMask Mask(boolean[][] model) {
+        EdgeMask mask = new EdgeMask(WIDTH, HEIGHT);
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                mask.set(c, r, model[r][c]);
+            }
+        }
+        
+        return mask;
+    }
+    
+    /*
+     * Checks every pixel, the count, and that no bit past the end of a row is set.
+     */
+    private static void AssertMatches(String message, boolean[][] model, EdgeMask mask) {
+        long count = 0;
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                assertEquals(message + " at " + c + ", " + r, model[r][c], mask.get(c, r));
+                count += model[r][c] ? 1 : 0;
+            }
+            
+            long last = mask.getWords()[r * mask.getWordsPerRow() + mask.getWordsPerRow() - 1];
+            
+            assertEquals(message + " past row " + r, 0, last & (-1L << WIDTH));
+        }
+        
+        assertEquals(message, count, mask.Count());
+    }
+    
+    @Test
+    public void testSetAndCount() {
+        boolean[][] model = Model(1, 0.3);
+        EdgeMask mask = Mask(model);
+        
+        assertEquals(3, mask.getWordsPerRow());
+        AssertMatches("set", model, mask);
+        
+        //Clearing must not disturb the other bits of the word
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = r; c < WIDTH; c += 7) {
+                model[r][c] = false;
+                mask.set(c, r, false);
+            }
+        }
+        
+        AssertMatches("cleared", model, mask);
+    }
+    
+    @Test
+    public void testSetOperations() {
+        boolean[][] a = Model(2, 0.5);
+        boolean[][] b = Model(3, 0.5);
+        boolean[][] and = new boolean[HEIGHT][WIDTH];
+        boolean[][] or = new boolean[HEIGHT][WIDTH];
+        boolean[][] andNot = new boolean[HEIGHT][WIDTH];
+        EdgeMask maskAnd = Mask(a);
+        EdgeMask maskOr = Mask(a);
+        EdgeMask maskAndNot = Mask(a);
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                and[r][c] = a[r][c] && b[r][c];
+                or[r][c] = a[r][c] || b[r][c];
+                andNot[r][c] = a[r][c] && !b[r][c];
+            }
+        }
+        
+        maskAnd.And(Mask(b));
+        maskOr.Or(Mask(b));
+        maskAndNot.AndNot(Mask(b));
+        
+        AssertMatches("And", and, maskAnd);
+        AssertMatches("Or", or, maskOr);
+        AssertMatches("AndNot", andNot, maskAndNot);
+        
+        try {
+            maskAnd.Or(new EdgeMask(WIDTH + 1, HEIGHT));
+            fail();
+        } catch (IllegalArgumentException e) {
+            AssertMatches("after a mismatch", and, maskAnd);
+        }
+    }
+    
+    @Test
+    public void testNextEdgeWalksRows() {
+        //Sparse enough that whole words of some rows are empty
+        boolean[][] model = Model(4, 0.02);
+        EdgeMask mask = Mask(model);
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            int expected = -1;
+            
+            for (int x = WIDTH + 70; x >= 0; x--) {
+                if (x < WIDTH && model[r][x]) {
+                    expected = x;
+                }
+                
+                assertEquals(x + ", " + r, expected, mask.NextEdge(x, r));
+            }
+        }
+        
+        try {
+            mask.NextEdge(0, HEIGHT);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+    
+    @Test
+    public void testPackAndImageMatchPlane() {
+        boolean[][] model = Model(5, 0.4);
+        BytePlane bin = new BytePlane(WIDTH, HEIGHT);
+        EdgeMask mask = new EdgeMask(WIDTH, HEIGHT);
+        
+        //Any nonzero byte is an edge, including ones that are negative as bytes
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                bin.data[r * bin.stride + c] = model[r][c] ? (byte) (1 + c % 255) : 0;
+            }
+        }
+        
+        mask.PackRows(bin, 0, HEIGHT);
+        AssertMatches("packed", model, mask);
+        
+        BufferedImage img = mask.ToImage(BufferedImage.TYPE_BYTE_GRAY);
+        
+        for (int r = 0; r < HEIGHT; r++) {
+            for (int c = 0; c < WIDTH; c++) {
+                assertEquals(c + ", " + r, model[r][c] ? 255 : 0, img.getRaster().getSample(c, r, 0));
+            }
+        }
+    }
+    
+    @Test
+    public void testOutsideThrows() {
+        EdgeMask mask = new EdgeMask(WIDTH, HEIGHT);
+        
+        //Column WIDTH is still inside the last word, so only the check stops it
+        for (int[] pixel : new int[][] {{WIDTH, 0}, {-1, 0}, {0, HEIGHT}, {0, -1}}) {
+            try {
+                mask.set(pixel[0], pixel[1], true);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+                assertEquals(0, mask.Count());
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the separable FIR blur against a direct 2D convolution, and the FIXED and IIR blurs against it.
+ * 
+ * @author robert
+ */
+
+public class GaussianTest {
+    
+    /*
+     * Returns the largest difference between two planes of the same size.
+     */
+    private static int MaxDifference(IntPlane a, IntPlane b) {
+        int max = 0;
+        
+        for (int r = 0; r < a.height; r++) {
+            for (int c = 0; c < a.width; c++) {
+                max = Math.max(max, Math.abs(a.data[r * a.stride + c] - b.data[r * b.stride + c]));
+            }
+        }
+        
+        return max;
+    }
+    
+    /*
+     * Returns the direct 2D convolution of raw with the outer product of mask with itself, rounded, cropped by the
+     * radius on every side.
+     */
+    private static IntPlane Direct(IntPlane raw, double[] mask) {
+        int rad = (mask.length - 1) / 2;
+        IntPlane out = new IntPlane(raw.width - 2 * rad, raw.height - 2 * rad);
+        
+        for (int r = 0; r < out.height; r++) {
+            for (int c = 0; c < out.width; c++) {
+                double sum = 0;
+                
+                for (int kr = 0; kr < mask.length; kr++) {
+                    for (int kc = 0; kc < mask.length; kc++) {
+                        sum += mask[kr] * mask[kc] * raw.data[(r + kr) * raw.stride + c + kc];
+                    }
+                }
+                
+                out.data[r * out.stride + c] = (int) Math.round(sum);
+            }
+        }
+        
+        return out;
+    }
+    
+    @Test
+    public void testSeparableMatchesDirect() {
+        for (double sigma : new double[] { 0.8, 1.5, 3 }) {
+            int rad = Gaussian.Radius(sigma, Gaussian.DEFAULT_TOLERANCE);
+            //Widths on both sides of every vector length, so the vector and scalar loops both run
+            IntPlane raw = TestImages.Noise(2 * rad + 37, 2 * rad + 23, (long) (sigma * 10));
+            IntPlane direct = Direct(raw, Gaussian.NormalizedKernel(rad, sigma));
+            
+            assertEquals("sigma " + sigma, 0, MaxDifference(direct, Gaussian.BlurGS(raw, rad, sigma)));
+        }
+    }
+    
+    @Test
+    public void testFixedWithinOneLevel() {
+        for (double sigma : new double[] { 0.8, 1.5, 3, 6 }) {
+            int rad = Gaussian.Radius(sigma, Gaussian.DEFAULT_TOLERANCE);
+            
+            for (long seed = 0; seed < 4; seed++) {
+                IntPlane raw = TestImages.Noise(2 * rad + 37 + (int) seed, 2 * rad + 23, seed);
+                
+                assertTrue("sigma " + sigma, MaxDifference(Gaussian.BlurGS(raw, rad, sigma),
+                        Gaussian.BlurFixed(raw, rad, sigma)) <= 1);
+            }
+        }
+        
+        //Flat regions of any gray level come through unchanged
+        IntPlane flat = new IntPlane(40, 30);
+        
+        for (int level = 0; level < 256; level += 15) {
+            Arrays.fill(flat.data, level);
+            assertEquals(level, Gaussian.BlurFixed(flat, 5, 1.5).get(10, 10));
+        }
+    }
+    
+    @Test
+    public void testIIRErrorBound() {
+        //Worst case differences from FIR on noise, as documented on BlurMode.IIR
+        double[] sigmas = { 0.5, 1.5, 2, 3, 6, 8 };
+        int[] bounds = { 20, 8, 5, 2, 1, 1 };
+        IntPlane noise = TestImages.Noise(240, 180, 7);
+        
+        for (int i = 0; i < sigmas.length; i++) {
+            int rad = Gaussian.Radius(sigmas[i], Gaussian.DEFAULT_TOLERANCE);
+            
+            assertTrue("sigma " + sigmas[i], MaxDifference(Gaussian.BlurGS(noise, rad, sigmas[i]),
+                    Gaussian.BlurIIR(noise, rad, sigmas[i])) <= bounds[i]);
+        }
+    }
+}
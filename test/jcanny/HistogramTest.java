@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the magnitude histogram and the thresholds taken from it.
+ * 
+ * @author robert
+ */
+
+public class HistogramTest {
+    
+    @Test
+    public void testSquaredBinsMatchRoots() {
+        //Every squared Sobel magnitude of 8-bit input, and a little beyond the last bin
+        for (int s = 0; s < Histogram.BINS * Histogram.BINS + 5000; s++) {
+            assertEquals("" + s, Math.min((int) Math.sqrt(s), Histogram.BINS - 1), Histogram.SquaredBin(s));
+        }
+        
+        assertEquals(0, Histogram.SquaredBin(0.5f));
+        assertEquals(Histogram.BINS - 1, Histogram.SquaredBin(Float.MAX_VALUE));
+    }
+    
+    @Test
+    public void testPercentile() {
+        int[] hist = new int[Histogram.BINS];
+        
+        //Ten pixels in each of bins 0 through 9
+        for (int b = 0; b < 10; b++) {
+            hist[b] = 10;
+        }
+        
+        assertEquals(9, Histogram.Percentile(hist, 0.9), 0);
+        assertEquals(5, Histogram.Percentile(hist, 0.5), 0);
+        assertEquals(6, Histogram.Percentile(hist, 0.51), 0);
+        assertEquals(1, Histogram.Percentile(hist, 0.05), 0);
+        assertEquals(10, Histogram.Percentile(hist, 1), 0);
+        
+        //Every pixel in one bin
+        hist = new int[Histogram.BINS];
+        hist[40] = 7;
+        
+        assertEquals(41, Histogram.Percentile(hist, 0.5), 0);
+        
+        hist[Histogram.BINS - 1] = 7;
+        
+        assertEquals(Histogram.BINS, Histogram.Percentile(hist, 0.99), 0);
+    }
+    
+    @Test
+    public void testOtsu() {
+        int[] hist = new int[Histogram.BINS];
+        
+        //Two spikes: every threshold between them splits them apart, and the first is taken
+        hist[10] = 100;
+        hist[50] = 100;
+        
+        assertEquals(11, Histogram.Otsu(hist), 0);
+        
+        //Random histograms against the threshold with the least within-class variance, found the long way
+        Random rnd = new Random(16);
+        
+        for (int n = 0; n < 5; n++) {
+            hist = new int[Histogram.BINS];
+            
+            for (int b = 0; b < 300; b++) {
+                hist[b] = rnd.nextInt(1000) * ((b < 80 || b > 150) ? 1 : 0);
+            }
+            
+            assertEquals(LeastWithinVariance(hist), Histogram.Otsu(hist), 0);
+        }
+    }
+    
+    /*
+     * Returns the threshold t that minimizes the summed squared distances of the pixels below t from their mean,
+     * plus those of the pixels at or above t from theirs.
+     */
+    private static int LeastWithinVariance(int[] hist) {
+        double best = Double.MAX_VALUE;
+        int threshold = 0;
+        
+        for (int t = 1; t < Histogram.BINS; t++) {
+            double within = Spread(hist, 0, t) + Spread(hist, t, Histogram.BINS);
+            
+            if (within < best - 1e-6 * best) {
+                best = within;
+                threshold = t;
+            }
+        }
+        
+        return threshold;
+    }
+    
+    /*
+     * Returns the summed squared distances of the pixels in bins [from, to) from their mean, or 0 if there are none.
+     */
+    private static double Spread(int[] hist, int from, int to) {
+        double count = 0;
+        double sum = 0;
+        double spread = 0;
+        
+        for (int b = from; b < to; b++) {
+            count += hist[b];
+            sum += (double) b * hist[b];
+        }
+        
+        for (int b = from; b < to && count > 0; b++) {
+            spread += hist[b] * (b - sum / count) * (b - sum / count);
+        }
+        
+        return spread;
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the raster readers give the grayscale values getRGB() would, and that the raster writers store the
+ * plane and nothing else, for whole images and subimages.
+ * 
+ * @author robert
+ */
+
+public class ImageUtilsTest {
+    //Types with their own raster reader, then two that go through getRGB()
+    private static final int[] TYPES = {
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_USHORT_565_RGB
+    };
+    
+    /*
+     * Returns an image of the given type filled with random pixels.
+     */
+    private static BufferedImage Random(int type, int width, int height, long seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random rand = new Random(seed);
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                    img.getRaster().setSample(c, r, 0, rand.nextInt(256));
+                } else {
+                    img.setRGB(c, r, rand.nextInt());
+                }
+            }
+        }
+        
+        return img;
+    }
+    
+    /*
+     * The grayscale value of pixel (c, r): the stored sample of a TYPE_BYTE_GRAY image, otherwise the rounded mean
+     * of the channels getRGB() gives.
+     */
+    private static int Expected(BufferedImage img, int c, int r) {
+        if (img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return img.getRaster().getSample(c, r, 0);
+        }
+        
+        int rgb = img.getRGB(c, r);
+        
+        return (int) Math.round((((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3.0);
+    }
+    
+    /*
+     * Checks every pixel of the plane against the image.
+     */
+    private static void AssertMatches(String message, BufferedImage img, IntPlane gs) {
+        for (int r = 0; r < img.getHeight(); r++) {
+            for (int c = 0; c < img.getWidth(); c++) {
+                assertEquals(message + " at " + c + ", " + r, Expected(img, c, r), gs.data[r * gs.stride + c]);
+            }
+        }
+    }
+    
+    @Test
+    public void testPlaneMatchesGetRGB() {
+        for (int type : TYPES) {
+            BufferedImage img = Random(type, 37, 29, type);
+            
+            AssertMatches("type " + type, img, ImageUtils.GSPlane(img));
+        }
+    }
+    
+    @Test
+    public void testSubimageMatchesGetRGB() {
+        for (int type : TYPES) {
+            //The subimage's raster starts inside its parent's rows, so the readers must honour its translation
+            BufferedImage sub = Random(type, 37, 29, type).getSubimage(5, 3, 23, 19);
+            
+            AssertMatches("subimage of type " + type, sub, ImageUtils.GSPlane(sub));
+        }
+    }
+    
+    @Test
+    public void testRowsLandAtPosition() {
+        for (int type : TYPES) {
+            BufferedImage img = Random(type, 37, 29, type).getSubimage(2, 4, 31, 21);
+            int stride = 40;
+            int[] data = new int[3 + 10 * stride];
+            
+            //Rows 6 through 15 go in after a gap of 3, stride apart, and nothing else is written
+            ImageUtils.GSRows(img, 6, 16, data, 3, stride);
+            
+            for (int i = 0; i < data.length; i++) {
+                int r = (i - 3) / stride + 6;
+                int c = (i - 3) % stride;
+                int expected = (i >= 3 && c < img.getWidth()) ? Expected(img, c, r) : 0;
+                
+                assertEquals("type " + type + " at " + i, expected, data[i]);
+            }
+        }
+    }
+    
+    /*
+     * The value an output image of the given type should hold for the gray value gs, as its raster stores it.
+     */
+    private static int Written(int type, int gs) {
+        if (type == BufferedImage.TYPE_BYTE_BINARY) {
+            return (gs >= 128) ? 1 : 0;
+        }
+        
+        return (type == BufferedImage.TYPE_INT_RGB) ? gs * 0x010101 : gs;
+    }
+    
+    /*
+     * The value pixel (c, r) of an output image holds: the RGB bits of a TYPE_INT_RGB image, otherwise its sample.
+     */
+    private static int Stored(BufferedImage img, int c, int r) {
+        return (img.getType() == BufferedImage.TYPE_INT_RGB) ? img.getRGB(c, r) & 0xffffff : img.getRaster().getSample(c, r, 0);
+    }
+    
+    /*
+     * Returns a plane of the given size filled with random gray values.
+     */
+    private static BytePlane RandomPlane(int width, int height, long seed) {
+        BytePlane raw = new BytePlane(width, height);
+        
+        new Random(seed).nextBytes(raw.data);
+        
+        return raw;
+    }
+    
+    @Test
+    public void testImageHoldsPlane() {
+        BytePlane raw = RandomPlane(29, 17, 3);
+        
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY}) {
+            BufferedImage img = ImageUtils.GSImg(raw, type);
+            
+            for (int r = 0; r < raw.height; r++) {
+                for (int c = 0; c < raw.width; c++) {
+                    int expected = Written(type, raw.data[r * raw.stride + c] & 0xff);
+                    
+                    assertEquals("type " + type + " at " + c + ", " + r, expected, Stored(img, c, r));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testSubimageKeepsNeighbours() {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_BINARY}) {
+            //Offsets and widths that start and end inside a byte of a binary row, and one row that fits in a byte
+            for (int[] box : new int[][] {{0, 2, 21, 7}, {3, 1, 5, 9}, {8, 4, 8, 5}, {13, 0, 19, 11}, {2, 3, 1, 4}}) {
+                BufferedImage parent = Random(type, 40, 12, box[0] * 100 + box[2]);
+                BufferedImage before = Random(type, 40, 12, box[0] * 100 + box[2]);
+                BufferedImage sub = parent.getSubimage(box[0], box[1], box[2], box[3]);
+                BytePlane raw = RandomPlane(box[2], box[3], box[1]);
+                String message = "type " + type + ", box " + Arrays.toString(box);
+                
+                ImageUtils.GSImg(raw, sub);
+                
+                for (int r = 0; r < parent.getHeight(); r++) {
+                    for (int c = 0; c < parent.getWidth(); c++) {
+                        int x = c - box[0];
+                        int y = r - box[1];
+                        boolean inside = x >= 0 && x < box[2] && y >= 0 && y < box[3];
+                        int expected = inside ? Written(type, raw.data[y * raw.stride + x] & 0xff) : Stored(before, c, r);
+                        
+                        assertEquals(message + " at " + c + ", " + r, expected, Stored(parent, c, r));
+                    }
+                }
+            }
+        }
+    }
+}
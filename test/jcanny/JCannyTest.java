@@ -0,0 +1,78 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the static entry points, which reuse a detector per thread, match a fresh detector.
+ * 
+ * @author robert
+ */
+
+public class JCannyTest {
+    
+    @Test
+    public void testReusedDetectorMatchesFresh() {
+        BufferedImage small = TestImages.Shapes(120, 90, 2);
+        BufferedImage large = TestImages.Shapes(301, 233, 3);
+        
+        for (int round = 0; round < 2; round++) {
+            for (BufferedImage img : new BufferedImage[] { large, small }) {
+                for (int numDev = 1; numDev <= 2; numDev++) {
+                    CannyDetector fresh = new CannyDetector(numDev, 0.2);
+                    BufferedImage expected = fresh.CannyEdges(img);
+                    BufferedImage gray = JCanny.CannyEdges(img, numDev, 0.2, BufferedImage.TYPE_BYTE_GRAY);
+                    
+                    assertEquals(0, TestImages.Differences(expected, JCanny.CannyEdges(img, numDev, 0.2)));
+                    assertEquals(BufferedImage.TYPE_BYTE_GRAY, gray.getType());
+                    assertEquals(0, TestImages.Differences(expected, gray));
+                    assertEquals(TestImages.Edges(expected), JCanny.CannyMask(img, numDev, 0.2).Count());
+                    assertEquals(BufferedImage.TYPE_INT_RGB, JCanny.CannyEdges(img, numDev, 0.2).getType());
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testThreadsGetTheirOwnDetector() throws Exception {
+        BufferedImage img = TestImages.Shapes(301, 233, 4);
+        BufferedImage expected = new CannyDetector(1, 0.2).CannyEdges(img);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        List<Future<Long>> results = new ArrayList<>();
+        
+        try {
+            for (int t = 0; t < 16; t++) {
+                results.add(threads.submit(() -> TestImages.Differences(expected, JCanny.CannyEdges(img, 1, 0.2))));
+            }
+            
+            for (Future<Long> result : results) {
+                assertEquals(0L, (long) result.get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+}
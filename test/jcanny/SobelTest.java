@@ -0,0 +1,104 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the separable Sobel code against a direct 3x3 convolution.
+ * 
+ * @author robert
+ */
+
+public class SobelTest {
+    private static final int[][] MASK_H = { {-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1} };
+    private static final int[][] MASK_V = { {-1, -2, -1}, {0, 0, 0}, {1, 2, 1} };
+    
+    /*
+     * Returns the response of the 3x3 mask centred on (r, c).
+     */
+    private static int Convolve(IntPlane raw, int[][] mask, int r, int c) {
+        int sum = 0;
+        
+        for (int kr = -1; kr < 2; kr++) {
+            for (int kc = -1; kc < 2; kc++) {
+                sum += mask[kr + 1][kc + 1] * raw.data[(r + kr) * raw.stride + c + kc];
+            }
+        }
+        
+        return sum;
+    }
+    
+    @Test
+    public void testMasksMatchConvolution() {
+        for (int seed = 0; seed < 50; seed++) {
+            IntPlane raw = TestImages.Noise(3 + seed % 17, 3 + seed % 11, seed);
+            IntPlane gx = Sobel.Horizontal(raw);
+            IntPlane gy = Sobel.Vertical(raw);
+            
+            for (int r = 0; r < gx.height; r++) {
+                for (int c = 0; c < gx.width; c++) {
+                    assertEquals(Convolve(raw, MASK_H, r + 1, c + 1), gx.data[r * gx.stride + c]);
+                    assertEquals(Convolve(raw, MASK_V, r + 1, c + 1), gy.data[r * gy.stride + c]);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testGradientMatchesConvolution() {
+        for (int seed = 0; seed < 50; seed++) {
+            //Widths on both sides of every vector length, so the vector and scalar loops both run
+            IntPlane raw = TestImages.Noise(3 + seed * 3, 3 + seed % 7, seed);
+            FloatPlane mag = new FloatPlane(raw.width - 2, raw.height - 2);
+            BytePlane dir = new BytePlane(mag.width, mag.height);
+            
+            for (MagnitudeMode mode : MagnitudeMode.values()) {
+                Sobel.Gradient(raw, mag, dir, mode);
+                
+                for (int r = 0; r < mag.height; r++) {
+                    for (int c = 0; c < mag.width; c++) {
+                        int gx = Convolve(raw, MASK_H, r + 1, c + 1);
+                        int gy = Convolve(raw, MASK_V, r + 1, c + 1);
+                        float expected = (mode == MagnitudeMode.SQUARED) ? gx * gx + gy * gy
+                                : (mode == MagnitudeMode.L1) ? Math.abs(gx) + Math.abs(gy) : (float) Math.sqrt(gx * gx + gy * gy);
+                        
+                        assertEquals(expected, mag.data[r * mag.stride + c], 0f);
+                        assertEquals(Sobel.Direction(gx, gy), dir.data[r * dir.stride + c]);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testDirectionMatchesAngle() {
+        for (int gx = -60; gx <= 60; gx++) {
+            for (int gy = -60; gy <= 60; gy++) {
+                double angle = Math.toDegrees(Math.atan2(gy, gx));
+                double folded = ((angle % 180) + 180) % 180;
+                
+                //Skip the boundaries between groups, where rounding decides
+                if ((gx != 0 || gy != 0) && Math.abs(folded % 45 - 22.5) > 1e-9) {
+                    assertEquals(gx + ", " + gy, (int) Math.round(folded / 45) % 4, Sobel.Direction(gx, gy));
+                }
+            }
+        }
+    }
+}
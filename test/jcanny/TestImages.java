@@ -0,0 +1,151 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Test images and pixel comparisons shared by the tests.
+ * 
+ * @author robert
+ */
+
+final class TestImages {
+    
+    private TestImages() {
+    }
+    
+    /*
+     * Returns the top-left corner of the given size of test/test1.png. Only the rows above the corner's bottom are
+     * decoded, so a small corner of the large photograph is quick to read.
+     */
+    static BufferedImage Photo(int width, int height) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File("test/test1.png"))) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+            ImageReadParam param = reader.getDefaultReadParam();
+            
+            try {
+                reader.setInput(in);
+                param.setSourceRegion(new Rectangle(0, 0, width, height));
+                
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /*
+     * Returns a grayscale image of random rectangles and discs over a gradient, with a little noise, so every
+     * direction code, weak edges and strong edges all turn up. The same seed always gives the same image.
+     */
+    static BufferedImage Shapes(int width, int height, long seed) {
+        Random rnd = new Random(seed);
+        int[] gray = new int[width * height];
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                gray[r * width + c] = 64 + (c + r) * 64 / (width + height);
+            }
+        }
+        
+        for (int s = 0; s < 12; s++) {
+            int cx = rnd.nextInt(width);
+            int cy = rnd.nextInt(height);
+            int size = 4 + rnd.nextInt(Math.max(1, Math.min(width, height) / 3));
+            int level = rnd.nextInt(256);
+            boolean disc = rnd.nextBoolean();
+            
+            for (int r = Math.max(0, cy - size); r < Math.min(height, cy + size); r++) {
+                for (int c = Math.max(0, cx - size); c < Math.min(width, cx + size); c++) {
+                    if (!disc || (r - cy) * (r - cy) + (c - cx) * (c - cx) < size * size) {
+                        gray[r * width + c] = level;
+                    }
+                }
+            }
+        }
+        
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = img.getRaster();
+        
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                raster.setSample(c, r, 0, Math.max(0, Math.min(255, gray[r * width + c] + rnd.nextInt(9) - 4)));
+            }
+        }
+        
+        return img;
+    }
+    
+    /*
+     * Returns a plane of random gray levels.
+     */
+    static IntPlane Noise(int width, int height, long seed) {
+        Random rnd = new Random(seed);
+        IntPlane plane = new IntPlane(width, height);
+        
+        for (int i = 0; i < plane.data.length; i++) {
+            plane.data[i] = rnd.nextInt(256);
+        }
+        
+        return plane;
+    }
+    
+    /*
+     * Returns how many pixels differ between two images of the same size.
+     */
+    static long Differences(BufferedImage a, BufferedImage b) {
+        long diff = 0;
+        
+        for (int r = 0; r < a.getHeight(); r++) {
+            for (int c = 0; c < a.getWidth(); c++) {
+                if ((a.getRGB(c, r) & 0xffffff) != (b.getRGB(c, r) & 0xffffff)) {
+                    diff++;
+                }
+            }
+        }
+        
+        return diff;
+    }
+    
+    /*
+     * Returns how many pixels are edges.
+     */
+    static long Edges(BufferedImage img) {
+        long count = 0;
+        
+        for (int r = 0; r < img.getHeight(); r++) {
+            for (int c = 0; c < img.getWidth(); c++) {
+                if ((img.getRGB(c, r) & 0xff) != 0) {
+                    count++;
+                }
+            }
+        }
+        
+        return count;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Robert Streetman
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package jcanny;
+
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that each SIMD kernel gives exactly what the scalar loop it replaces gives, for the pixels it covers.
+ * Skipped unless the JVM runs with --add-modules jdk.incubator.vector on hardware the kernels accept.
+ * 
+ * @author robert
+ */
+
+public class VectorKernelsTest {
+    private static final int WIDTH = 195;   //Just past a multiple of every vector length, so each kernel leaves a tail
+    private final Random rnd = new Random(11);
+    
+    @Before
+    public void setUp() {
+        assumeTrue(Simd.ENABLED);
+    }
+    
+    @Test
+    public void testBlurRows() {
+        double[][] masks = { Gaussian.NormalizedKernel(5, 1.4), Gaussian.NormalizedKernel(2, 0.8), {0.25, 0.5, 0.25} };
+        
+        for (double[] mask : masks) {
+            int taps = mask.length;
+            int[] in = new int[WIDTH + taps];
+            float[] smooth = new float[taps * WIDTH];
+            float[] expected = new float[WIDTH + 1];
+            int[] out = new int[WIDTH + 1];
+            
+            for (int i = 0; i < in.length; i++) {
+                in[i] = rnd.nextInt(256);
+            }
+            
+            //The kernels write past each vector they finish, but never past the row
+            expected[WIDTH] = -1;
+            out[WIDTH] = -1;
+            
+            int end = VectorKernels.HorizontalRow(in, 0, mask, expected, 0, WIDTH);
+            
+            assertTrue(end > 0);
+            assertEquals(-1, expected[WIDTH], 0f);
+            
+            for (int c = 0; c < end; c++) {
+                double sum = 0.;
+                
+                for (int mr = 0; mr < taps; mr++) {
+                    sum += (mask[mr] * in[c + mr]);
+                }
+                
+                assertEquals((float) sum, expected[c], 0f);
+            }
+            
+            //Whole and half gray levels, so that sums land exactly on the ties Math.round() breaks upwards
+            for (int i = 0; i < smooth.length; i++) {
+                smooth[i] = rnd.nextInt(511) / 2f;
+            }
+            
+            end = VectorKernels.VerticalRow(smooth, 0, WIDTH, mask, out, 0, WIDTH);
+            
+            assertTrue(end > 0);
+            assertEquals(-1, out[WIDTH]);
+            
+            for (int c = 0; c < end; c++) {
+                double sum = 0.;
+                
+                for (int mr = 0; mr < taps; mr++) {
+                    sum += (mask[mr] * smooth[mr * WIDTH + c]);
+                }
+                
+                assertEquals(c + " " + sum, (int) Math.round(sum), out[c]);
+            }
+        }
+    }
+    
+    @Test
+    public void testGradientRows() {
+        IntPlane raw = TestImages.Noise(WIDTH + 2, 3, 5);
+        int[] in = raw.data;
+        int top = 0;
+        int mid = raw.stride;
+        int bot = 2 * raw.stride;
+        float[] m = new float[WIDTH];
+        byte[] d = new byte[WIDTH];
+        
+        for (MagnitudeMode mode : MagnitudeMode.values()) {
+            int end = (mode == MagnitudeMode.SQUARED) ? VectorKernels.GradientRowSquared(in, top, mid, bot, m, 0, d, 0, WIDTH)
+                    : (mode == MagnitudeMode.L1) ? VectorKernels.GradientRowL1(in, top, mid, bot, m, 0, d, 0, WIDTH)
+                    : VectorKernels.GradientRow(in, top, mid, bot, m, 0, d, 0, WIDTH);
+            
+            assertTrue(end > 0);
+            
+            for (int c = 0; c < end; c++) {
+                int gx = (in[top + c + 2] + 2 * in[mid + c + 2] + in[bot + c + 2]) - (in[top + c] + 2 * in[mid + c] + in[bot + c]);
+                int gy = (in[bot + c] + 2 * in[bot + c + 1] + in[bot + c + 2]) - (in[top + c] + 2 * in[top + c + 1] + in[top + c + 2]);
+                float expected = (mode == MagnitudeMode.SQUARED) ? gx * gx + gy * gy
+                        : (mode == MagnitudeMode.L1) ? Math.abs(gx) + Math.abs(gy) : (float) Math.sqrt(gx * gx + gy * gy);
+                
+                assertEquals(mode + " " + c, expected, m[c], 0f);
+                assertEquals(mode + " " + c, Sobel.Direction(gx, gy), d[c]);
+            }
+        }
+    }
+    
+    @Test
+    public void testThresholds() {
+        float[] m = new float[3 * WIDTH];
+        byte[] b = new byte[WIDTH - 2];
+        double tHi = 40.3;
+        double tLo = 12.7;
+        
+        for (int i = 0; i < m.length; i++) {
+            m[i] = (rnd.nextInt(8) == 0) ? (float) tHi : (rnd.nextInt(4) == 0) ? (float) tLo : rnd.nextFloat() * 50;
+        }
+        
+        int end = VectorKernels.HysteresisRow(m, 0, WIDTH, 2 * WIDTH, WIDTH, Simd.AtLeast(tHi), Simd.AtLeast(tLo), b, 0);
+        
+        assertTrue(end > 1);
+        
+        for (int c = 1; c < end; c++) {
+            double magnitude = m[WIDTH + c];
+            boolean connected = false;
+            
+            for (int nc = c - 1; nc < c + 2; nc++) {
+                connected |= m[nc] >= tHi || m[WIDTH + nc] >= tHi || m[2 * WIDTH + nc] >= tHi;
+            }
+            
+            boolean edge = magnitude >= tHi || (magnitude >= tLo && connected);
+            
+            assertEquals(c + " " + magnitude, edge ? (byte) 255 : 0, b[c - 1]);
+        }
+        
+        for (int count = 0; count <= 64; count++) {
+            long word = VectorKernels.AtLeast(m, 17, count, Simd.AtLeast(tLo));
+            
+            for (int i = 0; i < 64; i++) {
+                assertEquals(count + " " + i, i < count && m[17 + i] >= tLo, ((word >>> i) & 1) != 0);
+            }
+        }
+    }
+}